@@ -0,0 +1,94 @@
+package com.cordova.geckoview;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte-bounded LRU cache of small, fully read asset responses.
+ * Shared by every engine instance served from the same LocalHttpServer.
+ */
+final class AssetCache {
+
+    static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    static final int DEFAULT_MAX_ENTRY_BYTES = 256 * 1024;
+
+    static final class Entry {
+        final byte[] data;
+        final String mimeType;
+
+        Entry(byte[] data, String mimeType) {
+            this.data = data;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final int maxEntryBytes;
+    private final int maxBytes;
+    private long currentBytes;
+
+    AssetCache(int maxBytes, int maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    synchronized Entry get(String key) {
+        return key != null ? entries.get(key) : null;
+    }
+
+    synchronized boolean contains(String key) {
+        return key != null && entries.containsKey(key);
+    }
+
+    synchronized void put(String key, byte[] data, String mimeType) {
+        if (key == null || data == null || data.length > maxEntryBytes || data.length > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, new Entry(data, mimeType));
+        if (previous != null) {
+            currentBytes -= previous.data.length;
+        }
+        currentBytes += data.length;
+        evictTo(maxBytes);
+    }
+
+    /**
+     * Evicts least recently used entries until at most {@code targetBytes} remain.
+     *
+     * @return the number of bytes released
+     */
+    synchronized long trimTo(long targetBytes) {
+        long before = currentBytes;
+        evictTo(Math.max(0, targetBytes));
+        return before - currentBytes;
+    }
+
+    synchronized long clear() {
+        long released = currentBytes;
+        entries.clear();
+        currentBytes = 0;
+        return released;
+    }
+
+    synchronized long sizeBytes() {
+        return currentBytes;
+    }
+
+    synchronized int count() {
+        return entries.size();
+    }
+
+    private void evictTo(long targetBytes) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (currentBytes > targetBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            currentBytes -= eldest.getValue().data.length;
+            it.remove();
+        }
+    }
+}
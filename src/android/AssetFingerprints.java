@@ -0,0 +1,120 @@
+package com.cordova.geckoview;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Content fingerprints of the app's assets, written at build time by the fingerprint
+ * tool (src/tools/fingerprint.sh) to {@link #MAP_NAME} in the app root.
+ *
+ * An asset is addressable as {@code /_h/<hash>/<path>}. When the pair is in the map the
+ * server answers with a year-long, immutable Cache-Control, so Gecko never revalidates
+ * it; the URL changes whenever the content does. Pairs that are not in the map (a stale
+ * hash, or no map at all) are still served, just without the caching headers.
+ *
+ * The map is plain text, one {@code <hash> <path>} pair per line with the path relative
+ * to the app root and not encoded.
+ */
+final class AssetFingerprints {
+
+    static final String MAP_NAME = "gecko-fingerprints.txt";
+    static final String URL_PREFIX = "/_h/";
+    static final String HEADER = "# geckoview asset fingerprints v1: <hash> <path>";
+    static final String IMMUTABLE_HEADER = "Cache-Control: public, max-age=31536000, immutable\r\n";
+    static final AssetFingerprints EMPTY = new AssetFingerprints(Collections.<String>emptySet());
+    // Hex characters of the SHA-256 digest kept in URLs.
+    private static final int HASH_LENGTH = 16;
+
+    // "<hash>/<path>"; a set rather than a map because identical files share a hash.
+    private final Set<String> pairs;
+
+    private AssetFingerprints(Set<String> pairs) {
+        this.pairs = pairs;
+    }
+
+    static AssetFingerprints parse(String text) {
+        Set<String> pairs = new HashSet<>();
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space > 0 && isHash(line.substring(0, space))) {
+                pairs.add(line.substring(0, space) + "/" + line.substring(space + 1).trim());
+            }
+        }
+        return pairs.isEmpty() ? EMPTY : new AssetFingerprints(pairs);
+    }
+
+    /**
+     * @param path decoded path relative to the app root
+     */
+    boolean matches(String hash, String path) {
+        return pairs.contains(hash + "/" + path);
+    }
+
+    int size() {
+        return pairs.size();
+    }
+
+    /**
+     * Splits a request path of the form {@code /_h/<hash>/<rest>}.
+     *
+     * @return the hash and the request path without the fingerprint ({@code /<rest>},
+     * query included), or {@code null} if the path is not fingerprinted
+     */
+    static String[] split(String rawPath) {
+        if (rawPath == null || !rawPath.startsWith(URL_PREFIX)) {
+            return null;
+        }
+        int slash = rawPath.indexOf('/', URL_PREFIX.length());
+        if (slash < 0 || slash == rawPath.length() - 1) {
+            return null;
+        }
+        String hash = rawPath.substring(URL_PREFIX.length(), slash);
+        return isHash(hash) ? new String[]{hash, rawPath.substring(slash)} : null;
+    }
+
+    /**
+     * Returns {@code relativePath} without a leading {@code _h/<hash>/}, as resolved from
+     * a rewritten document.
+     */
+    static String stripPrefix(String relativePath) {
+        String[] parts = split("/" + relativePath);
+        return parts != null ? parts[1].substring(1) : relativePath;
+    }
+
+    /**
+     * The fingerprint of an asset's content, as used in URLs and the map.
+     */
+    static String fingerprint(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(HASH_LENGTH);
+            for (int i = 0; i < HASH_LENGTH / 2; i++) {
+                hex.append(String.format(Locale.US, "%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isHash(String value) {
+        if (value.length() < 8 || value.length() > 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
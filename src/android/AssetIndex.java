@@ -0,0 +1,50 @@
+package com.cordova.geckoview;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Snapshot of the bundled app files, built once in the background when the server
+ * starts. Lets callers answer "does this asset exist?" without touching the APK.
+ * Directories are stored with a trailing slash.
+ */
+final class AssetIndex {
+
+    enum Lookup {
+        PRESENT,
+        MISSING,
+        /** The index has not been built yet or cannot vouch for this path. */
+        UNKNOWN
+    }
+
+    private volatile Set<String> paths;
+
+    void publish(Set<String> collected) {
+        paths = Collections.unmodifiableSet(collected);
+    }
+
+    /**
+     * Returns true only if the index is built and lists {@code relativePath} as a file.
+     */
+    boolean containsFile(String relativePath) {
+        Set<String> snapshot = paths;
+        return snapshot != null && relativePath != null && snapshot.contains(relativePath);
+    }
+
+    /**
+     * Looks up a path relative to the app base. An empty path is the base itself.
+     */
+    Lookup lookup(String relativePath) {
+        Set<String> snapshot = paths;
+        if (snapshot == null || relativePath == null) {
+            return Lookup.UNKNOWN;
+        }
+        if (relativePath.isEmpty() || snapshot.contains(relativePath)) {
+            return Lookup.PRESENT;
+        }
+        if (!relativePath.endsWith("/") && snapshot.contains(relativePath + "/")) {
+            return Lookup.PRESENT;
+        }
+        return Lookup.MISSING;
+    }
+}
@@ -0,0 +1,362 @@
+package com.cordova.geckoview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Persistent, byte-bounded LRU cache of asset bodies and their metadata under the app's
+ * cache directory.
+ *
+ * Entries live in a namespace directory derived from the installed APK, so an app update
+ * starts from an empty cache and the directories of previous installs are deleted when
+ * the cache opens. Each entry is a {@code <sha1>.bin} body with a {@code <sha1>.meta}
+ * file holding the MIME type and key; the body is renamed into place before the meta
+ * file is written, so a meta file never outlives its body. Index loading, writes and
+ * evictions all run on a single background thread; lookups return nothing until the
+ * index is loaded. Hits are recorded in memory and written back as file modification
+ * times in batches, on {@link #persistAccessTimes()} and on {@link #close()}, so
+ * eviction order survives restarts without a filesystem write per read.
+ */
+final class DiskAssetCache {
+
+    private static final String TAG = "DiskAssetCache";
+    static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    static final int ACCESS_BATCH = 64;
+
+    interface Source {
+        InputStream open() throws IOException;
+    }
+
+    static final class Entry {
+        final File file;
+        final String mimeType;
+        final long length;
+
+        Entry(File file, String mimeType, long length) {
+            this.file = file;
+            this.mimeType = mimeType;
+            this.length = length;
+        }
+    }
+
+    private final File root;
+    private final File dir;
+    private final long maxBytes;
+    private final ServerLogger log;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GeckoAssetCacheWriter");
+        t.setDaemon(true);
+        return t;
+    });
+    // Bodies read since the last write-back -> time of the latest hit, oldest first.
+    private final LinkedHashMap<File, Long> accessed = new LinkedHashMap<>();
+    private long currentBytes;
+    private volatile boolean loaded;
+
+    DiskAssetCache(File root, String namespace, long maxBytes, ServerLogger log) {
+        this.root = root;
+        this.dir = new File(root, namespace);
+        this.maxBytes = maxBytes;
+        this.log = log;
+        writer.execute(this::open);
+    }
+
+    /**
+     * Returns the stored entry for {@code key}, or {@code null} if absent or the index is
+     * still loading.
+     */
+    Entry get(String key) {
+        if (!loaded || key == null) {
+            return null;
+        }
+        Entry entry;
+        boolean flush = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null) {
+                accessed.remove(entry.file);
+                accessed.put(entry.file, System.currentTimeMillis());
+                flush = accessed.size() >= ACCESS_BATCH;
+            }
+        }
+        if (flush) {
+            persistAccessTimes();
+        }
+        return entry;
+    }
+
+    /**
+     * Writes the recorded hits back as modification times on the writer thread.
+     */
+    void persistAccessTimes() {
+        List<Map.Entry<File, Long>> times;
+        synchronized (this) {
+            if (accessed.isEmpty()) {
+                return;
+            }
+            times = new ArrayList<>(accessed.entrySet());
+            accessed.clear();
+        }
+        execute(() -> {
+            for (Map.Entry<File, Long> time : times) {
+                time.getKey().setLastModified(time.getValue());
+            }
+        });
+    }
+
+    /**
+     * Persists pending access times and lets the writer thread finish its queue and exit.
+     */
+    void close() {
+        persistAccessTimes();
+        writer.shutdown();
+    }
+
+    void put(String key, byte[] data, String mimeType) {
+        if (key == null || data == null || data.length > maxBytes) {
+            return;
+        }
+        execute(() -> store(key, mimeType, () -> null, data));
+    }
+
+    /**
+     * Copies a body too large to hold in memory; {@code source} is opened on the writer thread.
+     */
+    void putFrom(String key, Source source, String mimeType) {
+        if (key == null) {
+            return;
+        }
+        execute(() -> store(key, mimeType, source, null));
+    }
+
+    synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            currentBytes -= entry.length;
+            accessed.remove(entry.file);
+            execute(() -> deleteEntryFiles(entry.file));
+        }
+    }
+
+    long clear() {
+        List<File> files = new ArrayList<>();
+        long released;
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                files.add(entry.file);
+            }
+            entries.clear();
+            accessed.clear();
+            released = currentBytes;
+            currentBytes = 0;
+        }
+        execute(() -> {
+            for (File file : files) {
+                deleteEntryFiles(file);
+            }
+        });
+        return released;
+    }
+
+    private void execute(Runnable task) {
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Closed; the cache is read-only from here on.
+        }
+    }
+
+    synchronized long sizeBytes() {
+        return currentBytes;
+    }
+
+    synchronized int count() {
+        return entries.size();
+    }
+
+    private void open() {
+        File[] namespaces = root.listFiles();
+        if (namespaces != null) {
+            for (File other : namespaces) {
+                if (!other.getName().equals(dir.getName())) {
+                    deleteRecursively(other);
+                }
+            }
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.e(TAG, "Cannot create asset cache directory " + dir, null);
+            return;
+        }
+        File[] partial = dir.listFiles((d, name) -> name.endsWith(".tmp"));
+        if (partial != null) {
+            for (File file : partial) {
+                file.delete();
+            }
+        }
+        File[] metas = dir.listFiles((d, name) -> name.endsWith(".meta"));
+        if (metas != null) {
+            for (File meta : metas) {
+                String name = meta.getName();
+                if (!new File(dir, name.substring(0, name.length() - 5) + ".bin").isFile()) {
+                    meta.delete();
+                }
+            }
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".bin"));
+        List<File> bodies = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                bodies.add(file);
+            }
+        }
+        bodies.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        synchronized (this) {
+            for (File body : bodies) {
+                String[] meta = readMeta(metaFile(body));
+                if (meta == null) {
+                    deleteEntryFiles(body);
+                    continue;
+                }
+                entries.put(meta[1], new Entry(body, meta[0], body.length()));
+                currentBytes += body.length();
+            }
+            evictLocked();
+        }
+        loaded = true;
+        log.d(TAG, "Loaded " + entries.size() + " cached assets (" + currentBytes + " bytes) from " + dir.getName());
+    }
+
+    private void store(String key, String mimeType, Source source, byte[] data) {
+        if (!loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return;
+            }
+        }
+        File body = new File(dir, hash(key) + ".bin");
+        File temp = new File(dir, body.getName() + ".tmp");
+        long length = 0;
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                if (data != null) {
+                    out.write(data);
+                    length = data.length;
+                } else {
+                    try (InputStream in = source.open()) {
+                        byte[] buffer = new byte[16 * 1024];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                            length += read;
+                            if (length > maxBytes) {
+                                throw new IOException("Asset exceeds cache budget");
+                            }
+                        }
+                    }
+                }
+            }
+            if (!temp.renameTo(body)) {
+                throw new IOException("Failed to rename " + temp);
+            }
+            // A body without meta is dropped when the index loads.
+            try (OutputStream out = new FileOutputStream(metaFile(body))) {
+                out.write((mimeType + "\n" + key).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            log.d(TAG, "Not caching " + key + ": " + e.getMessage());
+            temp.delete();
+            deleteEntryFiles(body);
+            return;
+        }
+        synchronized (this) {
+            entries.put(key, new Entry(body, mimeType, length));
+            currentBytes += length;
+            evictLocked();
+        }
+    }
+
+    private void evictLocked() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            currentBytes -= eldest.length;
+            it.remove();
+            accessed.remove(eldest.file);
+            deleteEntryFiles(eldest.file);
+        }
+    }
+
+    private static File metaFile(File body) {
+        String name = body.getName();
+        return new File(body.getParentFile(), name.substring(0, name.length() - 4) + ".meta");
+    }
+
+    private static String[] readMeta(File meta) {
+        if (!meta.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(meta)) {
+            byte[] data = new byte[(int) meta.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    return null;
+                }
+                offset += read;
+            }
+            String text = new String(data, StandardCharsets.UTF_8);
+            int newline = text.indexOf('\n');
+            return newline > 0 ? new String[] { text.substring(0, newline), text.substring(newline + 1) } : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void deleteEntryFiles(File body) {
+        body.delete();
+        metaFile(body).delete();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.cordova.geckoview;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import org.apache.cordova.ICordovaCookieManager;
+import org.apache.cordova.LOG;
+
+import org.mozilla.geckoview.GeckoResult;
+import org.mozilla.geckoview.GeckoRuntime;
+import org.mozilla.geckoview.StorageController;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cookie manager for the Gecko engine.
+ *
+ * GeckoView has no API to read or write individual cookies, so this keeps a per-host
+ * read-through cache that is fed by native writes and by the Cookie headers the local
+ * server sees. Writes are buffered and committed in one batch on {@link #flush()} by
+ * assigning {@code document.cookie} in the current page; writes for other hosts stay
+ * pending until a page of that host finishes loading. Only the latest write per host
+ * and cookie name is kept, and at most {@link #MAX_PENDING_WRITES}. HttpOnly cookies
+ * cannot be set from script and are only kept in the cache. Clearing goes through the
+ * runtime's StorageController and completes asynchronously.
+ */
+final class GeckoCookieManager implements ICordovaCookieManager {
+
+    private static final String TAG = "GeckoCookieManager";
+    // Bounds what native code can buffer while no page of the written hosts loads.
+    static final int MAX_PENDING_WRITES = 256;
+
+    private static final class PendingWrite {
+        final String host;
+        final String value;
+
+        PendingWrite(String host, String value) {
+            this.host = host;
+            this.value = value;
+        }
+    }
+
+    private final GeckoViewEngine engine;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // host -> cookie name -> value, in insertion order
+    private final Map<String, LinkedHashMap<String, String>> cache = new HashMap<>();
+    // "host name" -> latest uncommitted write, oldest first
+    private final LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+    private volatile boolean enabled = true;
+
+    GeckoCookieManager(GeckoViewEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void setCookiesEnabled(boolean accept) {
+        enabled = accept;
+    }
+
+    @Override
+    public void setCookie(String url, String value) {
+        String host = hostOf(url);
+        if (!enabled || host == null || TextUtils.isEmpty(value)) {
+            return;
+        }
+        synchronized (this) {
+            applyToCache(host, value);
+            String key = host + ' ' + cookieName(value);
+            // Re-insert so a rewritten cookie moves behind the writes it now follows.
+            pending.remove(key);
+            pending.put(key, new PendingWrite(host, value));
+            if (pending.size() > MAX_PENDING_WRITES) {
+                Iterator<PendingWrite> oldest = pending.values().iterator();
+                LOG.w(TAG, "Dropping uncommitted cookie for " + oldest.next().host);
+                oldest.remove();
+            }
+        }
+    }
+
+    @Override
+    public String getCookie(String url) {
+        String host = hostOf(url);
+        if (!enabled || host == null) {
+            return null;
+        }
+        synchronized (this) {
+            Map<String, String> cookies = cache.get(host);
+            if (cookies == null || cookies.isEmpty()) {
+                return null;
+            }
+            StringBuilder header = new StringBuilder();
+            for (Map.Entry<String, String> cookie : cookies.entrySet()) {
+                if (header.length() > 0) {
+                    header.append("; ");
+                }
+                header.append(cookie.getKey()).append('=').append(cookie.getValue());
+            }
+            return header.toString();
+        }
+    }
+
+    @Override
+    public void clearCookies() {
+        synchronized (this) {
+            cache.clear();
+            pending.clear();
+        }
+        mainHandler.post(() -> {
+            GeckoRuntime runtime = GeckoViewEngine.sRuntime;
+            if (runtime == null) {
+                return;
+            }
+            GeckoResult<Void> result = runtime.getStorageController()
+                    .clearData(StorageController.ClearFlags.COOKIES);
+            if (result != null) {
+                result.accept(
+                        ignored -> LOG.d(TAG, "Cleared cookies"),
+                        error -> LOG.e(TAG, "Failed to clear cookies", error));
+            }
+        });
+    }
+
+    /**
+     * Commits buffered writes whose host matches the current page in a single script.
+     */
+    @Override
+    public void flush() {
+        mainHandler.post(() -> commitPending(engine.getUrl()));
+    }
+
+    /**
+     * Called on the UI thread when a page finished loading, so writes buffered for its
+     * host reach the page without waiting for the next flush.
+     */
+    void onPageLoaded(String url) {
+        boolean hasPending;
+        synchronized (this) {
+            hasPending = !pending.isEmpty();
+        }
+        if (hasPending) {
+            commitPending(url);
+        }
+    }
+
+    /**
+     * Replaces the cached cookies of {@code host} with a Cookie request header observed by
+     * the local server, keeping writes that were not committed yet. Runs on a worker thread.
+     */
+    void onRequestCookies(String host, String cookieHeader) {
+        if (host == null || cookieHeader == null) {
+            return;
+        }
+        String key = host.toLowerCase(Locale.US);
+        LinkedHashMap<String, String> cookies = new LinkedHashMap<>();
+        for (String pair : cookieHeader.split(";")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                cookies.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+            }
+        }
+        synchronized (this) {
+            cache.put(key, cookies);
+            for (PendingWrite write : pending.values()) {
+                if (write.host.equals(key)) {
+                    applyToCache(key, write.value);
+                }
+            }
+        }
+    }
+
+    private void commitPending(String pageUrl) {
+        String pageHost = hostOf(pageUrl);
+        if (pageHost == null) {
+            return;
+        }
+        StringBuilder js = new StringBuilder("(function(){");
+        int committed = 0;
+        synchronized (this) {
+            Iterator<PendingWrite> it = pending.values().iterator();
+            while (it.hasNext()) {
+                PendingWrite write = it.next();
+                if (!write.host.equals(pageHost)) {
+                    continue;
+                }
+                it.remove();
+                if (isHttpOnly(write.value)) {
+                    LOG.w(TAG, "HttpOnly cookie for " + write.host + " kept in cache only");
+                    continue;
+                }
+                js.append("document.cookie='").append(jsStringEscape(write.value)).append("';");
+                committed++;
+            }
+        }
+        if (committed > 0) {
+            engine.evaluateJavascript(js.append("})();").toString(), null);
+            LOG.d(TAG, "Committed " + committed + " cookie(s) for " + pageHost);
+        }
+    }
+
+    private void applyToCache(String host, String value) {
+        String[] attributes = value.split(";");
+        int eq = attributes[0].indexOf('=');
+        if (eq <= 0) {
+            return;
+        }
+        String name = attributes[0].substring(0, eq).trim();
+        String cookieValue = attributes[0].substring(eq + 1).trim();
+        boolean expired = false;
+        for (int i = 1; i < attributes.length; i++) {
+            String attribute = attributes[i].trim().toLowerCase(Locale.US);
+            if (attribute.startsWith("max-age=")) {
+                try {
+                    expired = Long.parseLong(attribute.substring(8).trim()) <= 0;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        LinkedHashMap<String, String> cookies = cache.get(host);
+        if (expired) {
+            if (cookies != null) {
+                cookies.remove(name);
+            }
+            return;
+        }
+        if (cookies == null) {
+            cookies = new LinkedHashMap<>();
+            cache.put(host, cookies);
+        }
+        cookies.put(name, cookieValue);
+    }
+
+    private static String cookieName(String value) {
+        String pair = value.split(";")[0];
+        int eq = pair.indexOf('=');
+        return (eq >= 0 ? pair.substring(0, eq) : pair).trim();
+    }
+
+    private static boolean isHttpOnly(String value) {
+        for (String attribute : value.split(";")) {
+            if ("httponly".equalsIgnoreCase(attribute.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hostOf(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        Uri uri = Uri.parse(url);
+        String host = uri != null ? uri.getHost() : null;
+        return TextUtils.isEmpty(host) ? null : host.toLowerCase(Locale.US);
+    }
+
+    // The script travels as a javascript: URL, so '%' must not survive as a literal.
+    private static String jsStringEscape(String text) {
+        return text.replace("\\", "\\\\").replace("'", "\\'")
+                .replace("\n", "\\n").replace("\r", "\\r").replace("%", "\\x25");
+    }
+}
@@ -0,0 +1,279 @@
+package com.cordova.geckoview;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.CordovaResourceApi;
+import org.apache.cordova.LOG;
+
+import org.mozilla.geckoview.GeckoRuntime;
+import org.mozilla.geckoview.GeckoRuntimeSettings;
+import org.mozilla.geckoview.GeckoSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Process-scoped owner of the state that should outlive a single engine instance.
+ *
+ * - The GeckoRuntime (one per process, as GeckoView requires)
+ * - The LocalHttpServer, reference counted so Activity recreation does not rebind it
+ * - Sessions parked during a configuration change, reattached by the next engine
+ *
+ * All methods are expected to be called on the UI thread.
+ */
+final class GeckoEngineHost {
+
+    private static final String TAG = "GeckoEngineHost";
+    // How long an unreferenced server or parked session survives before it is torn down.
+    private static final long SERVER_GRACE_MS = 5000;
+    private static final long PARKED_SESSION_TIMEOUT_MS = 10000;
+
+    private static GeckoRuntime sRuntime;
+    private static PerformanceProfile sProfile;
+    private static LocalHttpServer sServer;
+    private static int sServerRefs;
+    private static final Map<String, ParkedSession> sParkedSessions = new HashMap<>();
+    // Engines constructed so far per Activity instance, for session keys.
+    private static final Map<Context, Integer> sEngineCounts = new WeakHashMap<>();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable sStopServerTask = GeckoEngineHost::stopIdleServer;
+    private static final Runnable sParkServerTask = GeckoEngineHost::parkIdleServer;
+    private static int sPausedEngines;
+
+    private GeckoEngineHost() {
+    }
+
+    /**
+     * Returns the process runtime, creating it on first use with the performance profile
+     * built from {@code preferences}. Later callers share the first engine's settings.
+     */
+    static GeckoRuntime getRuntime(Context context, CordovaPreferences preferences) {
+        if (sRuntime == null) {
+            boolean enableRemoteDebug = isDebugBuild(context);
+            GeckoRuntimeSettings.Builder settingsBuilder = new GeckoRuntimeSettings.Builder();
+            sProfile = PerformanceProfile.fromPreferences(preferences, enableRemoteDebug);
+            sProfile.applyTo(settingsBuilder, context.getApplicationContext(), enableRemoteDebug);
+            LOG.d(TAG, "Runtime performance profile " + sProfile.toJson());
+            if (enableRemoteDebug) {
+                List<String> runtimeArgs = new ArrayList<>();
+                runtimeArgs.add("-start-debugger-server");
+                runtimeArgs.add("6000");
+                settingsBuilder
+                        .remoteDebuggingEnabled(true)
+                        .arguments(runtimeArgs.toArray(new String[0]));
+            }
+            GeckoRuntimeSettings settings = settingsBuilder.build();
+            long span = StartupTrace.begin();
+            sRuntime = GeckoRuntime.create(context.getApplicationContext(), settings);
+            StartupTrace.end("runtimeCreate", span);
+        }
+        return sRuntime;
+    }
+
+    static PerformanceProfile getPerformanceProfile() {
+        return sProfile;
+    }
+
+    /**
+     * Returns the shared server, starting it on first use. Each call must be balanced
+     * by {@link #releaseServer()}. The newest ResourceApi wins, since the previous one
+     * belongs to a destroyed Activity. Routes only apply when the server is created,
+     * since config.xml is the same for every engine in the process.
+     */
+    static LocalHttpServer acquireServer(CordovaResourceApi resourceApi, Context context,
+                                         UrlRouter.Builder routes) throws IOException {
+        sMainHandler.removeCallbacks(sStopServerTask);
+        if (sServer == null) {
+            LocalHttpServer server = new LocalHttpServer(resourceApi, null, context, routes);
+            server.start();
+            sServer = server;
+        } else {
+            sServer.setResourceApi(resourceApi);
+            sServer.unpark();
+        }
+        sServerRefs++;
+        return sServer;
+    }
+
+    static void releaseServer() {
+        if (sServerRefs <= 0) {
+            return;
+        }
+        sServerRefs--;
+        if (sServerRefs == 0) {
+            // Keep the socket bound briefly so a recreated Activity can reuse it.
+            sMainHandler.postDelayed(sStopServerTask, SERVER_GRACE_MS);
+        }
+    }
+
+    /**
+     * Called when an engine goes to the background. Once every engine holding the server
+     * is paused and {@code parkServer} is set, the server is parked after {@code delayMs}.
+     */
+    static void enginePaused(boolean parkServer, long delayMs) {
+        sPausedEngines++;
+        if (parkServer && sServer != null && sPausedEngines >= sServerRefs) {
+            sMainHandler.removeCallbacks(sParkServerTask);
+            sMainHandler.postDelayed(sParkServerTask, delayMs);
+        }
+    }
+
+    /**
+     * Balances {@link #enginePaused}; rebinds the server immediately if it was parked.
+     */
+    static void engineResumed() {
+        if (sPausedEngines > 0) {
+            sPausedEngines--;
+        }
+        sMainHandler.removeCallbacks(sParkServerTask);
+        if (sServer != null && sServer.isParked()) {
+            try {
+                sServer.unpark();
+            } catch (IOException e) {
+                LOG.e(TAG, "Failed to rebind local server", e);
+            }
+        }
+    }
+
+    /**
+     * Balances {@link #enginePaused} for an engine that is destroyed without resuming.
+     * The server stays parked, or due to park, since the engine is about to release it.
+     */
+    static void engineDestroyedWhilePaused() {
+        if (sPausedEngines > 0) {
+            sPausedEngines--;
+        }
+    }
+
+    private static void parkIdleServer() {
+        if (sServer != null && sPausedEngines >= sServerRefs) {
+            sServer.park();
+        }
+    }
+
+    private static void stopIdleServer() {
+        if (sServer != null && sServerRefs == 0) {
+            LOG.d(TAG, "Stopping idle local server");
+            sServer.stop();
+            sServer = null;
+        }
+    }
+
+    /**
+     * Key under which an engine parks and claims its session: the Activity class plus the
+     * engine's construction order within that Activity instance. A recreated Activity
+     * builds its engines in the same order, so each one gets its own session back.
+     */
+    static String sessionKey(Context context) {
+        Integer count = sEngineCounts.get(context);
+        int ordinal = count != null ? count : 0;
+        sEngineCounts.put(context, ordinal + 1);
+        return context.getClass().getName() + "#" + ordinal;
+    }
+
+    /**
+     * Keeps a session alive for a recreated engine to pick up. Delegates are cleared
+     * so the session no longer calls into the engine that parked it.
+     */
+    static void parkSession(String key, GeckoSession session, String url) {
+        if (key == null || session == null) {
+            return;
+        }
+        session.setContentDelegate(null);
+        session.setNavigationDelegate(null);
+        session.setProgressDelegate(null);
+        session.setPromptDelegate(null);
+        session.setHistoryDelegate(null);
+        session.setActive(false);
+
+        ParkedSession previous = sParkedSessions.remove(key);
+        if (previous != null) {
+            LOG.w(TAG, "Replacing unclaimed session parked for " + key);
+            sMainHandler.removeCallbacks(previous.expiry);
+            previous.expire();
+        }
+        ParkedSession parked = new ParkedSession(key, session, url);
+        sParkedSessions.put(key, parked);
+        sMainHandler.postDelayed(parked.expiry, PARKED_SESSION_TIMEOUT_MS);
+        LOG.d(TAG, "Parked session for " + key + " at " + url);
+    }
+
+    /**
+     * Returns the session parked under {@code key}, or {@code null} if none is waiting.
+     */
+    static ParkedSession claimSession(String key) {
+        if (key == null) {
+            return null;
+        }
+        ParkedSession parked = sParkedSessions.remove(key);
+        if (parked == null) {
+            return null;
+        }
+        sMainHandler.removeCallbacks(parked.expiry);
+        if (!parked.session.isOpen()) {
+            return null;
+        }
+        parked.session.setActive(true);
+        return parked;
+    }
+
+    /**
+     * Closes every parked session, e.g. under memory pressure.
+     *
+     * @return the number of sessions closed
+     */
+    static int closeParkedSessions() {
+        int closed = 0;
+        for (ParkedSession parked : new ArrayList<>(sParkedSessions.values())) {
+            sParkedSessions.remove(parked.key);
+            sMainHandler.removeCallbacks(parked.expiry);
+            parked.expire();
+            closed++;
+        }
+        return closed;
+    }
+
+    static boolean isDebugBuild(Context context) {
+        if (context == null) {
+            return false;
+        }
+        try {
+            ApplicationInfo info = context.getApplicationInfo();
+            return (info.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        } catch (Exception ignored) {
+            return false;
+        }
+    }
+
+    static final class ParkedSession {
+        final GeckoSession session;
+        final String url;
+        private final String key;
+        private final Runnable expiry;
+
+        private ParkedSession(String key, GeckoSession session, String url) {
+            this.key = key;
+            this.session = session;
+            this.url = url;
+            this.expiry = () -> {
+                if (sParkedSessions.get(this.key) == this) {
+                    sParkedSessions.remove(this.key);
+                }
+                expire();
+            };
+        }
+
+        private void expire() {
+            LOG.d(TAG, "Closing parked session for " + key);
+            session.close();
+        }
+    }
+}
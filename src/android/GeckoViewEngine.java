@@ -1,10 +1,13 @@
 package com.cordova.geckoview;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.content.pm.ApplicationInfo;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.content.res.XmlResourceParser;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.Xml;
@@ -27,14 +30,14 @@ import org.apache.cordova.LOG;
 import org.mozilla.geckoview.AllowOrDeny;
 import org.mozilla.geckoview.GeckoResult;
 import org.mozilla.geckoview.GeckoRuntime;
-import org.mozilla.geckoview.GeckoRuntimeSettings;
 import org.mozilla.geckoview.GeckoSession;
+import org.mozilla.geckoview.StorageController;
 import org.mozilla.geckoview.GeckoView;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.List;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -44,10 +47,50 @@ import org.xmlpull.v1.XmlPullParserException;
  *
  * - GeckoView 146.x compatible
  * - Cordova-Android 10+ CordovaWebViewEngine interface compatible
- * - JS-based back navigation (window.history.back())
+ * - Back navigation from natively tracked history (window.history.back() fallback)
  */
-public class GeckoViewEngine implements CordovaWebViewEngine {
+public class GeckoViewEngine implements CordovaWebViewEngine, ComponentCallbacks2 {
     private static final String TAG = "GeckoViewEngine";
+    private static final String PREF_RESTORE_SESSION_STATE = "GeckoRestoreSessionState";
+    private static final String PREF_STARTUP_TRACE = "GeckoStartupTrace";
+    private static final String PREF_MEMORY_TRIM = "GeckoMemoryTrim";
+    private static final String PREF_SPA_FALLBACK = "GeckoSpaFallback";
+    private static final String PREF_BACKGROUND_POLICY = "GeckoBackgroundPolicy";
+    private static final String PREF_SERVER_PARK_DELAY = "GeckoServerParkDelay";
+    private static final String PREF_NETWORK_SHAPING = "GeckoNetworkShaping";
+    private static final String PREF_DIAGNOSTICS = "GeckoDiagnostics";
+    private static final String PREF_PRELOAD_HINTS = "GeckoPreloadHints";
+    private static final String PREF_INLINE_ASSETS = "GeckoInlineAssets";
+    private static final String BACKGROUND_ACTIVE = "active";
+    private static final String BACKGROUND_PARK = "park";
+    private static final String PRELOAD_OFF = "off";
+    private static final String PRELOAD_EARLY_HINTS = "early-hints";
+    private static final String CACHE_SCOPE_NETWORK = "network";
+    private static final String CACHE_SCOPE_IMAGE = "image";
+    private static final String CACHE_SCOPE_SITE_DATA = "site-data";
+    private static final String CACHE_SCOPE_ALL = "all";
+    private static final int MAX_TRIM_REPORTS = 10;
+    private static final String PREFS_NAME = "geckoview_engine_prefs";
+    private static final String PREF_LAST_FRESH_LOAD_MS = "last_fresh_load_ms";
+    // Prompt default value used by the injected script that reports navigation timing.
+    private static final String TIMING_PROMPT = "gecko_timing:";
+    // Page-initiated clears arrive as prompts so that only content in this session can
+    // ask for them; the message is a query string (id, scope, host).
+    private static final String CLEAR_CACHE_PROMPT = "gecko_clear_cache:";
+    // Waits for deviceready when Cordova is still booting, so the report can carry the
+    // "gecko-deviceready" mark set by geckoview-engine.js; gives up after 10 s.
+    private static final String COLLECT_NAVIGATION_TIMING_JS =
+            "(function(){var sent=false;function send(){if(sent){return;}sent=true;try{" +
+            "var n=performance.getEntriesByType('navigation')[0];" +
+            "if(n){var t=n.toJSON();" +
+            "var d=performance.getEntriesByName('gecko-deviceready')[0];" +
+            "if(d){t.deviceReadyMs=d.startTime;}" +
+            "prompt(JSON.stringify(t),'" + TIMING_PROMPT + "');}" +
+            "}catch(e){}}" +
+            "var c=null;try{c=window.cordova&&cordova.require('cordova/channel');}catch(e){}" +
+            "if(c&&c.onDeviceReady.state!==2){" +
+            "document.addEventListener('deviceready',function(){setTimeout(send,0);},false);" +
+            "setTimeout(send,10000);}else{setTimeout(send,0);}})();";
 
     // Cordova state
     protected CordovaWebView parentWebView;
@@ -66,18 +109,61 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
     protected GeckoSession geckoSession;
     protected static GeckoRuntime sRuntime;
     protected LocalHttpServer localServer;
+    protected LocalHttpServer.Mount serverMount;
     protected String serverBaseUrl;
     protected String startPageUri;
+    protected boolean serverAcquired;
+
+    // Session reattached from a previous engine instance (Activity recreation)
+    protected String sessionKey;
+    protected String reattachedUrl;
 
     // Track current URL for Cordova's getUrl()
     protected String currentUrl;
 
-    // No-op cookie manager (Cordova requires an instance)
-    protected final ICordovaCookieManager cookieManager = new NoopCookieManager();
+    // Page load instrumentation, also served to JS at /__gecko__/metrics
+    protected final PageLoadMetrics pageLoadMetrics = new PageLoadMetrics();
+
+    // Navigation decision latency (synchronous fast path vs. streamed I/O path)
+    protected final LatencyStats syncDecisionStats = new LatencyStats("navigationDecisionSync");
+    protected final LatencyStats asyncDecisionStats = new LatencyStats("navigationDecisionAsync");
+
+    // History as reported by the session; until the first report arrives (e.g. on a
+    // reattached session) back navigation falls back to window.history.back().
+    protected volatile boolean historyKnown;
+    protected volatile boolean nativeCanGoBack;
+
+    // Background policy (GeckoBackgroundPolicy: active, throttle, park)
+    protected boolean paused;
+    protected boolean bridgePaused;
+    protected long backgroundCpuStartMs;
+    protected long backgroundStartedAt;
+
+    // Memory pressure handling
+    protected boolean componentCallbacksRegistered;
+    protected final ArrayDeque<String> trimReports = new ArrayDeque<>();
+
+    // Session state persistence for cold-start restore
+    protected SessionStateStore sessionStateStore;
+    protected boolean initialLoadHandled;
+    protected boolean restoringState;
+    // Start URL waiting for the persisted state to be read; cleared by any later load.
+    protected String pendingRestoreUrl;
+    protected long initialLoadStartedAt;
+
+    // Cached, batched cookie manager (GeckoView exposes no per-cookie API)
+    protected final GeckoCookieManager cookieManager = new GeckoCookieManager(this);
 
     // Constructors (Cordova instantiates through reflection)
     public GeckoViewEngine(Context context, CordovaPreferences preferences) {
         this.preferences = preferences;
+        this.sessionKey = GeckoEngineHost.sessionKey(context);
+        if (preferences != null && preferences.getBoolean(PREF_STARTUP_TRACE, false)) {
+            StartupTrace.enable();
+        }
+        if (preferences == null || preferences.getBoolean(PREF_RESTORE_SESSION_STATE, true)) {
+            sessionStateStore = new SessionStateStore(context, sessionKey);
+        }
         createGeckoView(context);
     }
 
@@ -133,6 +219,11 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         if (resourceApi != null) {
             startLocalServer(resourceApi);
         }
+
+        if (!componentCallbacksRegistered && containerView != null) {
+            containerView.getContext().getApplicationContext().registerComponentCallbacks(this);
+            componentCallbacksRegistered = true;
+        }
     }
 
     @Override
@@ -152,16 +243,32 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
 
     @Override
     public void loadUrl(String url, boolean clearNavigationStack) {
-        if (clearNavigationStack) {
+        if (clearNavigationStack && (initialLoadHandled || reattachedUrl == null)) {
             clearHistory();
         }
+        pendingRestoreUrl = null;
         String rewritten = rewriteStartUrl(url);
+        if (!initialLoadHandled) {
+            initialLoadHandled = true;
+            StartupTrace.instantOnce("firstLoadUrl");
+            if (resumeReattachedSession(rewritten)) {
+                return;
+            }
+            initialLoadStartedAt = SystemClock.elapsedRealtime();
+            if (restorePersistedState(rewritten)) {
+                return;
+            }
+        }
+        loadFresh(rewritten);
+    }
+
+    private void loadFresh(String url) {
         if (cordovaClient != null) {
-            cordovaClient.onPageStarted(rewritten);
+            cordovaClient.onPageStarted(url);
         }
-        currentUrl = rewritten;
+        currentUrl = url;
         if (geckoSession != null) {
-            geckoSession.loadUri(rewritten);
+            geckoSession.loadUri(url);
         }
     }
 
@@ -179,10 +286,114 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
 
     @Override
     public void clearCache() {
-        // Approximate cache clearing by forcing a cache-bypass reload
-        if (geckoSession != null && currentUrl != null) {
-            geckoSession.reload(GeckoSession.LOAD_FLAGS_BYPASS_CACHE);
+        clearCache(CACHE_SCOPE_NETWORK + "," + CACHE_SCOPE_IMAGE, null, null);
+    }
+
+    /**
+     * Clears runtime data asynchronously through the StorageController.
+     *
+     * @param scopes comma separated list of network, image, site-data, all; site-data
+     *               is the page's DOM storage (localStorage, sessionStorage, IndexedDB)
+     *               together with its service worker registrations
+     * @param host   optional host to restrict clearing to
+     * @param done   receives {@code null} on success or the error message; when absent a
+     *               {@code geckocachecleared} document event is fired instead
+     */
+    void clearCache(String scopes, String host, ValueCallback<String> done) {
+        long flags = parseCacheScopes(scopes);
+        String scopeList = TextUtils.isEmpty(scopes) ? CACHE_SCOPE_NETWORK + "," + CACHE_SCOPE_IMAGE : scopes;
+        if (flags == 0 || sRuntime == null) {
+            reportCacheCleared(scopeList, host, flags == 0 ? "Unknown cache scope" : "No runtime", done);
+            return;
+        }
+        if (localServer != null) {
+            localServer.invalidateCaches();
+        }
+        StorageController storage = sRuntime.getStorageController();
+        GeckoResult<Void> result = TextUtils.isEmpty(host)
+                ? storage.clearData(flags)
+                : storage.clearDataFromHost(host, flags);
+        if (result == null) {
+            reportCacheCleared(scopeList, host, null, done);
+            return;
+        }
+        result.accept(
+                ignored -> reportCacheCleared(scopeList, host, null, done),
+                error -> reportCacheCleared(scopeList, host, String.valueOf(error.getMessage()), done));
+    }
+
+    private static long parseCacheScopes(String scopes) {
+        if (TextUtils.isEmpty(scopes)) {
+            return StorageController.ClearFlags.ALL_CACHES;
+        }
+        long flags = 0;
+        for (String scope : scopes.split(",")) {
+            switch (scope.trim()) {
+                case CACHE_SCOPE_NETWORK:
+                    flags |= StorageController.ClearFlags.NETWORK_CACHE;
+                    break;
+                case CACHE_SCOPE_IMAGE:
+                    flags |= StorageController.ClearFlags.IMAGE_CACHE;
+                    break;
+                case CACHE_SCOPE_SITE_DATA:
+                    // Gecko clears service worker registrations together with DOM storage.
+                    flags |= StorageController.ClearFlags.DOM_STORAGES;
+                    break;
+                case CACHE_SCOPE_ALL:
+                    flags |= StorageController.ClearFlags.ALL;
+                    break;
+                default:
+                    LOG.w(TAG, "Ignoring unknown cache scope " + scope);
+            }
         }
+        return flags;
+    }
+
+    private void reportCacheCleared(String scopes, String host, String error, ValueCallback<String> done) {
+        if (error != null) {
+            LOG.e(TAG, "Clearing " + scopes + " failed: " + error);
+        } else {
+            LOG.d(TAG, "Cleared " + scopes + (TextUtils.isEmpty(host) ? "" : " for " + host));
+        }
+        if (done != null) {
+            done.onReceiveValue(error);
+            return;
+        }
+        dispatchCacheCleared(cacheClearedJson(null, scopes, host, error));
+    }
+
+    private void dispatchCacheCleared(String detail) {
+        evaluateJavascript(
+                "(function(){var e=document.createEvent('Events');" +
+                "e.initEvent('geckocachecleared',false,false);" +
+                "e.detail=" + detail + ";" +
+                "document.dispatchEvent(e);" +
+                "})();", null);
+    }
+
+    private static String cacheClearedJson(String id, String scopes, String host, String error) {
+        return "{\"id\":" + (TextUtils.isEmpty(id) ? "null" : "\"" + jsonEscape(id) + "\"") +
+                ",\"scopes\":\"" + jsonEscape(scopes) + "\"" +
+                ",\"host\":" + (TextUtils.isEmpty(host) ? "null" : "\"" + jsonEscape(host) + "\"") +
+                ",\"error\":" + (error == null ? "null" : "\"" + jsonEscape(error) + "\"") + "}";
+    }
+
+    private static String jsonEscape(String text) {
+        String value = text == null ? "" : text;
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Starts a clear requested by the page. Runs on the UI thread; the outcome is
+     * reported with a {@code geckocachecleared} event carrying the request id.
+     */
+    private void clearCacheFromPage(String request) {
+        Uri query = Uri.parse("?" + request);
+        String id = query.getQueryParameter("id");
+        String scopes = query.getQueryParameter("scope");
+        String host = query.getQueryParameter("host");
+        clearCache(scopes, host, error -> dispatchCacheCleared(cacheClearedJson(id,
+                TextUtils.isEmpty(scopes) ? CACHE_SCOPE_NETWORK + "," + CACHE_SCOPE_IMAGE : scopes, host, error)));
     }
 
     @Override
@@ -191,18 +402,24 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
     }
 
     // -------------------------------------------------------------------------
-    // JS-based back navigation
+    // Back navigation
     // -------------------------------------------------------------------------
 
     @Override
     public boolean canGoBack() {
-        // We don't see native history state; let Cordova attempt JS-level back.
-        return true;
+        return !historyKnown || nativeCanGoBack;
     }
 
     @Override
     public boolean goBack() {
-        // Use JS to navigate browser history instead of GeckoSession.canGoBack()/goBack()
+        if (historyKnown) {
+            if (!nativeCanGoBack || geckoSession == null) {
+                return false;
+            }
+            geckoSession.goBack();
+            return true;
+        }
+        // No history report yet; let the page attempt it.
         String js = "if (window.history && window.history.length > 1) {" +
                     "window.history.back();" +
                     "}";
@@ -212,20 +429,98 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
 
     @Override
     public void setPaused(boolean value) {
+        if (paused == value) {
+            return;
+        }
+        paused = value;
+        String policy = preferences != null
+                ? preferences.getString(PREF_BACKGROUND_POLICY, "throttle")
+                : "throttle";
+        boolean park = BACKGROUND_PARK.equalsIgnoreCase(policy);
         if (geckoSession != null) {
             geckoSession.setActive(!value);
+            if (!BACKGROUND_ACTIVE.equalsIgnoreCase(policy)) {
+                geckoSession.setFocused(!value);
+            }
+        }
+        // Hold native-to-JS messages while hidden and deliver them as one batch on resume.
+        if (nativeToJsMessageQueue != null && (park || bridgePaused) && bridgePaused != value) {
+            nativeToJsMessageQueue.setPaused(value);
+            bridgePaused = value;
+        }
+        if (value) {
+            backgroundStartedAt = SystemClock.elapsedRealtime();
+            backgroundCpuStartMs = android.os.Process.getElapsedCpuTime();
+            if (serverAcquired) {
+                long delay = preferences != null ? preferences.getInteger(PREF_SERVER_PARK_DELAY, 30000) : 30000;
+                GeckoEngineHost.enginePaused(park, Math.max(0, delay));
+            }
+        } else {
+            if (serverAcquired) {
+                GeckoEngineHost.engineResumed();
+                followServerOrigin();
+            }
+            if (backgroundStartedAt > 0) {
+                LOG.d(TAG, "Background for " + (SystemClock.elapsedRealtime() - backgroundStartedAt) +
+                        " ms used " + (android.os.Process.getElapsedCpuTime() - backgroundCpuStartMs) +
+                        " ms CPU (policy " + policy + ")");
+                backgroundStartedAt = 0;
+            }
+        }
+    }
+
+    /**
+     * Picks up a new server origin after the server could not get its old port back on
+     * unpark, and reloads the current page from it; the old origin no longer answers.
+     */
+    private void followServerOrigin() {
+        String base = serverMount != null ? serverMount.getBaseUrl() : null;
+        if (base == null || serverBaseUrl == null || base.equals(serverBaseUrl)) {
+            return;
+        }
+        String previous = serverBaseUrl;
+        serverBaseUrl = base;
+        LOG.w(TAG, "Local server moved from " + previous + " to " + base);
+        if (currentUrl != null && currentUrl.startsWith(previous) && geckoSession != null) {
+            currentUrl = base + currentUrl.substring(previous.length());
+            geckoSession.loadUri(currentUrl);
         }
     }
 
     @Override
     public void destroy() {
+        if (componentCallbacksRegistered && containerView != null) {
+            containerView.getContext().getApplicationContext().unregisterComponentCallbacks(this);
+            componentCallbacksRegistered = false;
+        }
+        pendingRestoreUrl = null;
+        Activity activity = cordova != null ? cordova.getActivity() : null;
+        if (sessionStateStore != null && activity != null && activity.isFinishing()) {
+            // The user left the app on purpose; the next launch should start fresh.
+            sessionStateStore.clear();
+        }
+        if (paused && serverAcquired) {
+            GeckoEngineHost.engineDestroyedWhilePaused();
+        }
         if (localServer != null) {
-            localServer.stop();
+            localServer.unregisterMount(serverMount);
+            serverMount = null;
+            if (serverAcquired) {
+                GeckoEngineHost.releaseServer();
+                serverAcquired = false;
+            }
             localServer = null;
             serverBaseUrl = null;
         }
         if (geckoSession != null) {
-            geckoSession.close();
+            if (activity != null && activity.isChangingConfigurations()) {
+                if (geckoView != null) {
+                    geckoView.releaseSession();
+                }
+                GeckoEngineHost.parkSession(sessionKey, geckoSession, currentUrl);
+            } else {
+                geckoSession.close();
+            }
             geckoSession = null;
         }
         if (geckoView != null && containerView != null) {
@@ -234,6 +529,101 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         }
     }
 
+    // -------------------------------------------------------------------------
+    // Memory pressure (ComponentCallbacks2)
+    // -------------------------------------------------------------------------
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimMemory(level, trimGrade(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, 3);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Maps a trim level to a grade: 0 none, 1 light, 2 moderate, 3 critical.
+     * GeckoMemoryTrim=aggressive shifts every grade up by one, off disables trimming.
+     */
+    private int trimGrade(int level) {
+        int grade;
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+                grade = 1;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+            case ComponentCallbacks2.TRIM_MEMORY_BACKGROUND:
+                grade = 2;
+                break;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+            case ComponentCallbacks2.TRIM_MEMORY_MODERATE:
+            case ComponentCallbacks2.TRIM_MEMORY_COMPLETE:
+                grade = 3;
+                break;
+            default:
+                // TRIM_MEMORY_UI_HIDDEN only means we went to the background.
+                grade = 0;
+                break;
+        }
+        String policy = preferences != null ? preferences.getString(PREF_MEMORY_TRIM, "conservative") : "conservative";
+        if ("off".equalsIgnoreCase(policy)) {
+            return 0;
+        }
+        if ("aggressive".equalsIgnoreCase(policy) && grade > 0) {
+            grade = Math.min(3, grade + 1);
+        }
+        return grade;
+    }
+
+    private void trimMemory(int level, int grade) {
+        if (grade <= 0) {
+            return;
+        }
+        if (sRuntime != null) {
+            // Lets Gecko shed its own caches and tell its content processes.
+            sRuntime.onTrimMemory(level);
+        }
+        long serverBytes = localServer != null ? localServer.trimMemory(grade) : 0;
+        int parkedClosed = 0;
+        boolean geckoCachesCleared = false;
+        if (grade >= 2) {
+            parkedClosed = GeckoEngineHost.closeParkedSessions();
+        }
+        if (grade >= 3) {
+            pageLoadMetrics.clear();
+            if (sRuntime != null) {
+                sRuntime.getStorageController().clearData(StorageController.ClearFlags.IMAGE_CACHE);
+                geckoCachesCleared = true;
+            }
+        }
+        String report = "{\"level\":" + level + ",\"grade\":" + grade +
+                ",\"serverBytesReleased\":" + serverBytes +
+                ",\"parkedSessionsClosed\":" + parkedClosed +
+                ",\"runtimeNotified\":" + (sRuntime != null) +
+                ",\"geckoImageCacheCleared\":" + geckoCachesCleared + "}";
+        LOG.d(TAG, "Trimmed memory " + report);
+        synchronized (trimReports) {
+            if (trimReports.size() >= MAX_TRIM_REPORTS) {
+                trimReports.removeFirst();
+            }
+            trimReports.addLast(report);
+        }
+    }
+
+    /**
+     * Returns the recent page load records (timings, server request waterfall and
+     * PerformanceNavigationTiming) as a JSON array.
+     */
+    public String getPageLoadMetrics() {
+        return pageLoadMetrics.toJson();
+    }
+
     @Override
     public void evaluateJavascript(String js, ValueCallback<String> callback) {
         if (geckoSession != null) {
@@ -250,26 +640,23 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
     // -------------------------------------------------------------------------
 
     private void createGeckoView(Context context) {
+        long span = StartupTrace.begin();
         containerView = new EngineFrameLayout(context);
         geckoView = new GeckoView(context);
 
-        if (sRuntime == null) {
-            boolean enableRemoteDebug = isDebugBuild(context);
-            GeckoRuntimeSettings.Builder settingsBuilder = new GeckoRuntimeSettings.Builder();
-            if (enableRemoteDebug) {
-                List<String> runtimeArgs = new ArrayList<>();
-                runtimeArgs.add("-start-debugger-server");
-                runtimeArgs.add("6000");
-                settingsBuilder
-                        .remoteDebuggingEnabled(true)
-                        .arguments(runtimeArgs.toArray(new String[0]));
-            }
-            GeckoRuntimeSettings settings = settingsBuilder.build();
-            sRuntime = GeckoRuntime.create(context.getApplicationContext(), settings);
-        }
+        sRuntime = GeckoEngineHost.getRuntime(context, preferences);
 
-        geckoSession = new GeckoSession();
-        geckoSession.open(sRuntime);
+        GeckoEngineHost.ParkedSession parked = GeckoEngineHost.claimSession(sessionKey);
+        if (parked != null) {
+            LOG.d(TAG, "Reattaching parked session at " + parked.url);
+            geckoSession = parked.session;
+            reattachedUrl = parked.url;
+        } else {
+            long openSpan = StartupTrace.begin();
+            geckoSession = new GeckoSession();
+            geckoSession.open(sRuntime);
+            StartupTrace.end("sessionOpen", openSpan);
+        }
 
         geckoView.setSession(geckoSession);
 
@@ -281,18 +668,7 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
                         FrameLayout.LayoutParams.MATCH_PARENT,
                         FrameLayout.LayoutParams.MATCH_PARENT)
         );
-    }
-
-    private boolean isDebugBuild(Context context) {
-        if (context == null) {
-            return false;
-        }
-        try {
-            ApplicationInfo info = context.getApplicationInfo();
-            return (info.flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
-        } catch (Exception ignored) {
-            return false;
-        }
+        StartupTrace.end("createGeckoView", span);
     }
 
     private void recreateSession() {
@@ -303,6 +679,8 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         geckoSession = new GeckoSession();
         geckoSession.open(sRuntime);
         geckoView.setSession(geckoSession);
+        historyKnown = true;
+        nativeCanGoBack = false;
 
         rebindSessionDelegates();
     }
@@ -312,7 +690,48 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
             return;
         }
 
-        geckoSession.setContentDelegate(new GeckoSession.ContentDelegate() {});
+        geckoSession.setContentDelegate(new GeckoSession.ContentDelegate() {
+            @Override
+            public void onFirstContentfulPaint(GeckoSession session) {
+                pageLoadMetrics.onFirstContentfulPaint();
+                if (StartupTrace.isEnabled()) {
+                    StartupTrace.instantOnce("firstContentfulPaint");
+                    StartupTrace.finish(containerView != null ? containerView.getContext() : null);
+                }
+            }
+        });
+
+        geckoSession.setProgressDelegate(new GeckoSession.ProgressDelegate() {
+            @Override
+            public void onPageStart(GeckoSession session, String url) {
+                pageLoadMetrics.onPageStart(url);
+            }
+
+            @Override
+            public void onPageStop(GeckoSession session, boolean success) {
+                pageLoadMetrics.onPageStop(success);
+                if (cordovaClient != null) {
+                    cordovaClient.onPageFinishedLoading(currentUrl);
+                }
+                if (success) {
+                    evaluateJavascript(COLLECT_NAVIGATION_TIMING_JS, null);
+                    cookieManager.onPageLoaded(currentUrl);
+                }
+                if (initialLoadStartedAt > 0) {
+                    long elapsed = SystemClock.elapsedRealtime() - initialLoadStartedAt;
+                    initialLoadStartedAt = 0;
+                    reportInitialLoadTime(elapsed, success);
+                }
+            }
+
+            @Override
+            public void onSessionStateChange(GeckoSession session,
+                                             GeckoSession.SessionState sessionState) {
+                if (sessionStateStore != null) {
+                    sessionStateStore.update(sessionState);
+                }
+            }
+        });
 
         geckoSession.setNavigationDelegate(new GeckoSession.NavigationDelegate() {
             @Override
@@ -322,14 +741,27 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
                 return interceptLocalLoad(request);
             }
 
+            @Override
+            public void onCanGoBack(GeckoSession session, boolean canGoBack) {
+                nativeCanGoBack = canGoBack;
+                historyKnown = true;
+            }
+
             @Override
             public void onLocationChange(GeckoSession session,
                                          String url,
                                          List<GeckoSession.PermissionDelegate.ContentPermission> perms,
                                          Boolean hasUserGesture) {
                 currentUrl = url;
-                if (cordovaClient != null) {
-                    cordovaClient.onPageFinishedLoading(url);
+            }
+        });
+
+        geckoSession.setHistoryDelegate(new GeckoSession.HistoryDelegate() {
+            @Override
+            public void onHistoryStateChange(GeckoSession session, GeckoSession.HistoryDelegate.HistoryList history) {
+                if (history != null) {
+                    nativeCanGoBack = history.getCurrentIndex() > 0;
+                    historyKnown = true;
                 }
             }
         });
@@ -337,6 +769,96 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         geckoSession.setPromptDelegate(new EnginePromptDelegate());
     }
 
+    private boolean resumeReattachedSession(String requestedUrl) {
+        String url = reattachedUrl;
+        reattachedUrl = null;
+        if (url == null || geckoSession == null || TextUtils.isEmpty(serverBaseUrl) ||
+                requestedUrl == null || !requestedUrl.startsWith(serverBaseUrl) ||
+                !url.startsWith(serverBaseUrl)) {
+            return false;
+        }
+        LOG.d(TAG, "Resuming reattached session at " + url);
+        currentUrl = url;
+        if (cordovaClient != null) {
+            cordovaClient.onPageStarted(url);
+            cordovaClient.onPageFinishedLoading(url);
+        }
+        // The page still holds the old bridge secret; re-run the exec handshake
+        // against the new CordovaBridge and let the app know it resumed.
+        evaluateJavascript(
+                "(function(){try{cordova.require('cordova/androidexec').init();}catch(e){}" +
+                "try{cordova.fireDocumentEvent('resume');}catch(e){}})();", null);
+        return true;
+    }
+
+    /**
+     * Reads the persisted state off the UI thread, then restores it or falls back to
+     * loading {@code requestedUrl}.
+     *
+     * @return false if there is nothing to restore and the caller should load normally
+     */
+    private boolean restorePersistedState(String requestedUrl) {
+        if (sessionStateStore == null || geckoSession == null ||
+                TextUtils.isEmpty(serverBaseUrl) || requestedUrl == null ||
+                !requestedUrl.startsWith(serverBaseUrl)) {
+            return false;
+        }
+        pendingRestoreUrl = requestedUrl;
+        sessionStateStore.load(state -> {
+            if (!requestedUrl.equals(pendingRestoreUrl) || geckoSession == null) {
+                // Superseded by another load, or destroyed meanwhile.
+                return;
+            }
+            pendingRestoreUrl = null;
+            if (!restoreState(state)) {
+                loadFresh(requestedUrl);
+            }
+        });
+        return true;
+    }
+
+    private boolean restoreState(GeckoSession.SessionState state) {
+        if (state == null || state.isEmpty()) {
+            return false;
+        }
+        int index = state.getCurrentIndex();
+        if (index < 0 || index >= state.size()) {
+            return false;
+        }
+        String restoredUrl = state.get(index).getUri();
+        // Only restore pages served by our own origin; anything else is stale.
+        if (restoredUrl == null || !restoredUrl.startsWith(serverBaseUrl)) {
+            return false;
+        }
+        LOG.d(TAG, "Restoring persisted session state at " + restoredUrl);
+        restoringState = true;
+        currentUrl = restoredUrl;
+        if (cordovaClient != null) {
+            cordovaClient.onPageStarted(restoredUrl);
+        }
+        geckoSession.restoreState(state);
+        return true;
+    }
+
+    private void reportInitialLoadTime(long elapsedMs, boolean success) {
+        Context context = containerView != null ? containerView.getContext() : null;
+        if (context == null) {
+            return;
+        }
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (restoringState) {
+            restoringState = false;
+            long freshLoad = prefs.getLong(PREF_LAST_FRESH_LOAD_MS, -1);
+            LOG.d(TAG, "Session state restore finished in " + elapsedMs + " ms" +
+                    (freshLoad >= 0 ? " (last fresh load " + freshLoad + " ms)" : ""));
+            return;
+        }
+        LOG.d(TAG, "Initial page load finished in " + elapsedMs + " ms");
+        if (success) {
+            prefs.edit().putLong(PREF_LAST_FRESH_LOAD_MS, elapsedMs).apply();
+        }
+    }
+
     private GeckoResult<GeckoSession.PromptDelegate.PromptResponse> handleCordovaPrompt(
             GeckoSession.PromptDelegate.TextPrompt prompt) {
 
@@ -383,6 +905,14 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         public GeckoResult<PromptResponse> onTextPrompt(
                 GeckoSession session,
                 TextPrompt prompt) {
+            if (TIMING_PROMPT.equals(prompt.defaultValue)) {
+                pageLoadMetrics.onNavigationTiming(prompt.message);
+                return GeckoResult.fromValue(prompt.confirm(""));
+            }
+            if (CLEAR_CACHE_PROMPT.equals(prompt.defaultValue)) {
+                clearCacheFromPage(prompt.message != null ? prompt.message : "");
+                return GeckoResult.fromValue(prompt.confirm(""));
+            }
             return handleCordovaPrompt(prompt);
         }
     }
@@ -406,38 +936,79 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         }
         try {
             Context context = containerView != null ? containerView.getContext() : null;
-            localServer = new LocalHttpServer(api, null, context);
-            localServer.start();
-            serverBaseUrl = localServer.getBaseUrl();
+            UrlRouter.Builder routes = new UrlRouter.Builder();
+            long configSpan = StartupTrace.begin();
+            startPageUri = resolveStartAsset(context, routes);
+            StartupTrace.end("configParse", configSpan);
+            localServer = GeckoEngineHost.acquireServer(api, context, routes);
+            serverAcquired = true;
+            serverMount = localServer.registerMount();
+            serverMount.requestObserver = pageLoadMetrics::onRequestServed;
+            // Page-load metrics, trim reports and the runtime profile: debug builds, or an
+            // app that opted in.
+            if ((preferences != null && preferences.getBoolean(PREF_DIAGNOSTICS, false)) ||
+                    GeckoEngineHost.isDebugBuild(context)) {
+                serverMount.endpointHandler = this::handleEngineEndpoint;
+            }
+            String serverHost = Uri.parse(serverMount.getBaseUrl()).getHost();
+            serverMount.cookieObserver = header -> cookieManager.onRequestCookies(serverHost, header);
+            serverMount.spaFallback = preferences != null && preferences.getBoolean(PREF_SPA_FALLBACK, false);
+            String preload = preferences != null ? preferences.getString(PREF_PRELOAD_HINTS, "link") : "link";
+            serverMount.preloadHints = !PRELOAD_OFF.equalsIgnoreCase(preload);
+            serverMount.earlyHints = PRELOAD_EARLY_HINTS.equalsIgnoreCase(preload);
+            serverMount.inlineAssets = HtmlInliner.Whitelist.parse(
+                    preferences != null ? preferences.getString(PREF_INLINE_ASSETS, "") : "");
+            String shaping = preferences != null ? preferences.getString(PREF_NETWORK_SHAPING, "") : "";
+            // Runtime shaping control is for testing: debug builds, or an app that opted in.
+            localServer.setShapingControl(!TextUtils.isEmpty(shaping) || GeckoEngineHost.isDebugBuild(context));
+            if (!TextUtils.isEmpty(shaping)) {
+                try {
+                    localServer.setShaping(TrafficShaper.parse(shaping));
+                } catch (IllegalArgumentException e) {
+                    LOG.w(TAG, "Ignoring " + PREF_NETWORK_SHAPING + ": " + e.getMessage());
+                }
+            }
+            serverBaseUrl = serverMount.getBaseUrl();
             LOG.d(TAG, "Local server started at " + serverBaseUrl);
-            startPageUri = resolveStartAsset(containerView.getContext());
             if (!TextUtils.isEmpty(startPageUri)) {
                 LOG.d(TAG, "Resolved start page " + startPageUri);
-                localServer.setDefaultAsset(startPageUri);
+                serverMount.setDefaultAsset(startPageUri);
             }
         } catch (IOException e) {
             LOG.e(TAG, "Failed to start local server", e);
         }
     }
 
+    /**
+     * Serves {@code /__gecko__/<name>} requests for this engine's mount. Runs on a
+     * server worker thread.
+     */
+    private String handleEngineEndpoint(String name, String requestUrl) {
+        if ("metrics".equals(name)) {
+            return pageLoadMetrics.toJson();
+        }
+        if ("memory".equals(name)) {
+            synchronized (trimReports) {
+                return "[" + TextUtils.join(",", trimReports) + "]";
+            }
+        }
+        if ("info".equals(name)) {
+            PerformanceProfile profile = GeckoEngineHost.getPerformanceProfile();
+            return "{\"profile\":" + (profile != null ? profile.toJson() : "null") + "}";
+        }
+        return null;
+    }
+
     private String rewriteStartUrl(String url) {
-        if (localServer == null || url == null) {
+        if (serverMount == null || url == null) {
             return url;
         }
         LOG.d(TAG, "Rewriting URL " + url);
-        try {
-            Uri uri = Uri.parse(url);
-            String host = uri.getHost();
-            if (!TextUtils.isEmpty(host) &&
-                ("localhost".equalsIgnoreCase(host) || "127.0.0.1".equals(host))) {
-                String path = uri.getPath();
-                if ((TextUtils.isEmpty(path) || "/".equals(path) || "/index.html".equals(path)) &&
-                        !TextUtils.isEmpty(startPageUri)) {
-                    LOG.d(TAG, "Routing localhost start path to " + startPageUri);
-                    return localServer.rewriteFileUri(startPageUri);
-                }
-            }
-        } catch (Exception ignored) { }
+        UrlRouter.Match match = localServer.getRouter().match(url);
+        if (match != null && match.isEntry(url) && !TextUtils.isEmpty(startPageUri)) {
+            LOG.d(TAG, "Routing localhost start path to " + startPageUri);
+            return serverMount.rewriteFileUri(startPageUri);
+        }
 
         if (resourceApi != null) {
             try {
@@ -445,15 +1016,21 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
                 Uri remapped = resourceApi.remapUri(original);
                 if (remapped != null && "file".equalsIgnoreCase(remapped.getScheme())) {
                     String remappedString = remapped.toString();
-                    localServer.setDefaultAsset(remappedString);
-                    return localServer.rewriteFileUri(remappedString);
+                    serverMount.setDefaultAsset(remappedString);
+                    return serverMount.rewriteFileUri(remappedString);
                 }
             } catch (Exception ignored) {
             }
         }
-        return localServer.rewriteUri(url);
+        return serverMount.rewriteUri(url);
     }
 
+    /**
+     * Decides local navigations synchronously on the delegate (UI) thread from the
+     * compiled routes and the bundled asset index. Anything the server can serve is
+     * rerouted to it; only file URLs outside every route are streamed, which is the one
+     * case that needs real I/O before Gecko gets an answer.
+     */
     private GeckoResult<AllowOrDeny> interceptLocalLoad(
             GeckoSession.NavigationDelegate.LoadRequest request) {
         if (request == null || resourceApi == null || cordova == null ||
@@ -461,104 +1038,87 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
             return null;
         }
 
-        Uri uri;
-        try {
-            uri = Uri.parse(request.uri);
-        } catch (Exception e) {
-            return null;
-        }
-        if (uri == null) {
-            return null;
-        }
-
-        String scheme = uri.getScheme();
-        boolean isCordovaScheme =
-                "cdvfile".equalsIgnoreCase(scheme) ||
-                (TextUtils.isEmpty(scheme) && request.uri.startsWith("cdvfile://"));
-        boolean isFileScheme = "file".equalsIgnoreCase(scheme);
-        boolean isLocalHttp = isLocalLoopback(uri);
-
-        if (isLocalHttp) {
-            return null;
-        }
-
-        // Gecko can treat Loader.data HTML navigations as data-doc context on some builds,
-        // which breaks relative script URLs. Route local HTML navigations through the
-        // embedded localhost server instead.
-        if ((isCordovaScheme || isFileScheme) && shouldRerouteToLocalServer(request.uri)) {
-            final String rewritten = localServer != null ? localServer.rewriteUri(request.uri) : request.uri;
-            if (!TextUtils.isEmpty(rewritten) && !TextUtils.equals(rewritten, request.uri)) {
-                Activity activity = cordova.getActivity();
-                Runnable rerouteTask = () -> {
-                    if (geckoSession == null) {
-                        return;
-                    }
-                    currentUrl = rewritten;
-                    geckoSession.loadUri(rewritten);
-                };
-                if (activity != null) {
-                    activity.runOnUiThread(rerouteTask);
-                } else {
-                    rerouteTask.run();
-                }
-                return GeckoResult.fromValue(AllowOrDeny.DENY);
+        final long started = System.nanoTime();
+        final String originalUri = request.uri;
+        UrlRouter.Match match = localServer != null ? localServer.getRouter().match(originalUri) : null;
+        if (match != null) {
+            if (match.route.action != UrlRouter.Action.SERVE || serverMount == null) {
+                // Loopback, entry and pass-through routes load as they are.
+                return recordDecision(null, started);
+            }
+            if (isKnownMissingAsset(match, originalUri)) {
+                // Nothing to serve; let Gecko report the failure without a thread hop.
+                return recordDecision(GeckoResult.fromValue(AllowOrDeny.ALLOW), started);
             }
+            // Gecko can treat Loader.data HTML navigations as data-doc context on some builds,
+            // which breaks relative script URLs. Route local navigations through the
+            // embedded localhost server instead, which also keeps the read off this thread.
+            final String rewritten = serverMount.rewriteUri(originalUri);
+            if (!TextUtils.isEmpty(rewritten) && !TextUtils.equals(rewritten, originalUri) &&
+                    geckoSession != null) {
+                currentUrl = rewritten;
+                geckoSession.loadUri(rewritten);
+                return recordDecision(GeckoResult.fromValue(AllowOrDeny.DENY), started);
+            }
+        } else if (!isLocalFileUrl(originalUri)) {
+            return recordDecision(null, started);
         }
 
-        if (!isCordovaScheme && !isFileScheme) {
+        final Uri finalTarget;
+        try {
+            finalTarget = Uri.parse(originalUri);
+        } catch (Exception e) {
             return null;
         }
-
-        Uri resourceTarget = uri;
-        if (resourceTarget == null) {
+        if (finalTarget == null) {
             return null;
         }
 
-        final String originalUri = request.uri;
-        final Uri finalTarget = resourceTarget;
         GeckoResult<AllowOrDeny> decision = new GeckoResult<>();
         cordova.getThreadPool().execute(() -> {
             boolean handled = streamLocalResourceToGecko(originalUri, finalTarget);
             decision.complete(handled
                     ? AllowOrDeny.DENY
                     : AllowOrDeny.ALLOW);
+            asyncDecisionStats.record(System.nanoTime() - started);
         });
         return decision;
     }
 
-    private boolean shouldRerouteToLocalServer(String uriText) {
-        if (TextUtils.isEmpty(uriText) || localServer == null) {
-            return false;
+    private GeckoResult<AllowOrDeny> recordDecision(GeckoResult<AllowOrDeny> decision, long started) {
+        syncDecisionStats.record(System.nanoTime() - started);
+        if (syncDecisionStats.count() % 100 == 0) {
+            LOG.d(TAG, "Navigation decisions: " + syncDecisionStats + " " + asyncDecisionStats);
         }
-        String u = uriText.toLowerCase();
-        if (u.startsWith("javascript:")) {
-            return false;
-        }
-        if (u.contains(".html") || u.endsWith("/") || u.endsWith(".htm")) {
-            return true;
-        }
-        // Handle root file/cdvfile navigations that may omit extension.
-        if (u.startsWith("file://") || u.startsWith("cdvfile://")) {
-            int q = u.indexOf('?');
-            String noQuery = q >= 0 ? u.substring(0, q) : u;
-            return noQuery.endsWith("/www") || noQuery.endsWith("/www/") || noQuery.endsWith("/tienlen");
-        }
-        return false;
+        return decision;
     }
 
-    private boolean isLocalLoopback(Uri uri) {
-        if (uri == null) {
+    private boolean isKnownMissingAsset(UrlRouter.Match match, String url) {
+        if (!match.route.appRoot || match.route.reroute || localServer == null ||
+                !serverMount.isServingBundledAssets()) {
             return false;
         }
-        String scheme = uri.getScheme();
-        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
-            return false;
+        int end = url.length();
+        for (int i = match.end; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        String relative = url.substring(match.end, end);
+        if (relative.indexOf('%') >= 0) {
+            relative = Uri.decode(relative);
         }
-        String host = uri.getHost();
-        if (TextUtils.isEmpty(host)) {
+        if (serverMount.appliesSpaFallback(relative)) {
             return false;
         }
-        return "localhost".equalsIgnoreCase(host) || "127.0.0.1".equals(host);
+        return localServer.getAssetIndex().lookup(relative) == AssetIndex.Lookup.MISSING;
+    }
+
+    private static boolean isLocalFileUrl(String url) {
+        return url.regionMatches(true, 0, "file:", 0, 5) ||
+               url.regionMatches(true, 0, "cdvfile:", 0, 8);
     }
 
     private boolean streamLocalResourceToGecko(String originalUri, Uri parsedUri) {
@@ -636,7 +1196,11 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         return MimeTypeHelper.ensureMimeType(source, candidate);
     }
 
-    private String resolveStartAsset(Context context) {
+    private String resolveStartAsset(Context context, UrlRouter.Builder routes) {
+        if (context == null) {
+            return null;
+        }
+        String startAsset = null;
         int id = context.getResources().getIdentifier("config", "xml", context.getPackageName());
         if (id == 0) {
             return null;
@@ -645,13 +1209,21 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         try {
             int event = parser.getEventType();
             while (event != XmlPullParser.END_DOCUMENT) {
-                if (event == XmlPullParser.START_TAG && "content".equals(parser.getName())) {
-                    String src = parser.getAttributeValue(null, "src");
-                    if (!TextUtils.isEmpty(src)) {
-                        if (!src.startsWith("file:///")) {
-                            src = "file:///android_asset/www/" + src;
+                if (event == XmlPullParser.START_TAG) {
+                    String name = parser.getName();
+                    if (startAsset == null && "content".equals(name)) {
+                        String src = parser.getAttributeValue(null, "src");
+                        if (!TextUtils.isEmpty(src)) {
+                            if (!src.startsWith("file:///")) {
+                                src = "file:///android_asset/www/" + src;
+                            }
+                            startAsset = src;
                         }
-                        return src;
+                    } else if (routes != null && "gecko-route".equals(name)) {
+                        routes.addConfigRoute(
+                                parser.getAttributeValue(null, "match"),
+                                parser.getAttributeValue(null, "action"),
+                                parser.getAttributeValue(null, "path"));
                     }
                 }
                 event = parser.next();
@@ -660,13 +1232,9 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
         } finally {
             parser.close();
         }
-        return null;
+        return startAsset;
     }
 
-    // -------------------------------------------------------------------------
-    // No-op cookie manager
-    // -------------------------------------------------------------------------
-
     private class EngineFrameLayout extends FrameLayout implements CordovaWebViewEngine.EngineView {
 
         EngineFrameLayout(Context context) {
@@ -689,12 +1257,4 @@ public class GeckoViewEngine implements CordovaWebViewEngine {
             return super.dispatchKeyEvent(event);
         }
     }
-
-    private static class NoopCookieManager implements ICordovaCookieManager {
-        @Override public void setCookiesEnabled(boolean accept) { }
-        @Override public void setCookie(String url, String value) { }
-        @Override public String getCookie(String url) { return null; }
-        @Override public void clearCookies() { }
-        @Override public void flush() { }
-    }
 }
@@ -0,0 +1,488 @@
+package com.cordova.geckoview;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming rewrite of an entry document that replaces small, same-origin, whitelisted
+ * external scripts and stylesheets with inline copies, saving one request each before
+ * {@code deviceready}.
+ *
+ * The document is passed through byte by byte; only a candidate tag (and the
+ * {@code </script>} after it) is held back, in a buffer of at most
+ * {@link #MAX_TAG_BYTES}. Anything the rewriter does not understand is copied unchanged.
+ * Comments and the contents of script and style elements are never rewritten, and a
+ * {@code <base>} element stops inlining because it changes how references resolve.
+ *
+ * Scripts are left alone if inlining would change their behaviour: modules, async or
+ * deferred scripts, integrity-checked ones and ones with event handler attributes.
+ * Stylesheets are left alone when they carry a media query or title, or reference
+ * other files from a different directory than the document.
+ */
+final class HtmlInliner {
+
+    static final int MAX_TAG_BYTES = 4096;
+    static final int MAX_ASSET_BYTES = 32 * 1024;
+    static final int MAX_TOTAL_BYTES = 512 * 1024;
+
+    /**
+     * Reads an asset by decoded path relative to the app root.
+     */
+    interface AssetLoader {
+        /**
+         * @return the asset, or {@code null} if it is missing or larger than {@code maxBytes}
+         */
+        byte[] load(String relativePath, int maxBytes);
+    }
+
+    /**
+     * Paths that may be inlined, from a comma or whitespace separated list: exact paths
+     * relative to the app root, directory prefixes ending in '/' or '*', or "*" for all.
+     */
+    static final class Whitelist {
+        final String spec;
+        private final List<String> exact = new ArrayList<>();
+        private final List<String> prefixes = new ArrayList<>();
+
+        private Whitelist(String spec) {
+            this.spec = spec;
+        }
+
+        /**
+         * @return {@code null} if the list is empty
+         */
+        static Whitelist parse(String spec) {
+            if (spec == null || spec.trim().isEmpty()) {
+                return null;
+            }
+            Whitelist whitelist = new Whitelist(spec.trim());
+            for (String item : spec.trim().split("[,\\s]+")) {
+                while (item.startsWith("/") || item.startsWith("./")) {
+                    item = item.substring(item.startsWith("/") ? 1 : 2);
+                }
+                if (item.endsWith("*")) {
+                    whitelist.prefixes.add(item.substring(0, item.length() - 1));
+                } else if (item.endsWith("/")) {
+                    whitelist.prefixes.add(item);
+                } else if (!item.isEmpty()) {
+                    whitelist.exact.add(item);
+                }
+            }
+            return whitelist;
+        }
+
+        boolean allows(String relativePath) {
+            if (exact.contains(relativePath)) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (relativePath.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int COMMENT = 2;
+    private static final int RAW_TEXT = 3;
+    private static final int SCRIPT_CLOSE = 4;
+    private static final byte[] SCRIPT_END = "</script".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STYLE_END = "</style".getBytes(StandardCharsets.US_ASCII);
+
+    private final String documentPath;
+    private final Whitelist whitelist;
+    private final boolean allowRootAbsolute;
+    private final AssetLoader loader;
+
+    private OutputStream out;
+    private int state = TEXT;
+    private boolean stopped;
+    private final byte[] pending = new byte[MAX_TAG_BYTES];
+    private int pendingLength;
+    private byte quote;
+    private int matched;
+    private byte[] rawEnd;
+    // The <script> tag and the inline element replacing it while SCRIPT_CLOSE looks for
+    // the end tag; pending then holds what follows the tag.
+    private byte[] heldTag;
+    private byte[] replacement;
+    private int inlinedBytes;
+
+    int inlinedScripts;
+    int inlinedStyles;
+
+    /**
+     * @param documentPath      path of the document relative to the app root
+     * @param allowRootAbsolute whether root-absolute references resolve to the app root,
+     *                          i.e. the document is served from the root mount
+     */
+    HtmlInliner(String documentPath, Whitelist whitelist, boolean allowRootAbsolute, AssetLoader loader) {
+        this.documentPath = documentPath;
+        this.whitelist = whitelist;
+        this.allowRootAbsolute = allowRootAbsolute;
+        this.loader = loader;
+    }
+
+    /**
+     * Copies {@code in} to {@code out} with eligible assets inlined. Closes neither stream.
+     */
+    void transform(InputStream in, OutputStream out) throws IOException {
+        // The state machine writes byte by byte.
+        this.out = new BufferedOutputStream(out, 8 * 1024);
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                feed(buffer[i]);
+            }
+        }
+        finish();
+        this.out.flush();
+    }
+
+    /**
+     * Number of requests the rewritten document saves.
+     */
+    int inlinedCount() {
+        return inlinedScripts + inlinedStyles;
+    }
+
+    private void feed(byte b) throws IOException {
+        switch (state) {
+            case TAG:
+                feedTag(b);
+                break;
+            case COMMENT:
+                out.write(b);
+                // Looking for "-->"; matched counts the dashes seen.
+                if (b == '-') {
+                    matched++;
+                } else {
+                    if (b == '>' && matched >= 2) {
+                        state = TEXT;
+                    }
+                    matched = 0;
+                }
+                break;
+            case RAW_TEXT:
+                out.write(b);
+                matched = lower(b) == rawEnd[matched] ? matched + 1 : (b == '<' ? 1 : 0);
+                if (matched == rawEnd.length) {
+                    state = TEXT;
+                }
+                break;
+            case SCRIPT_CLOSE:
+                feedScriptClose(b);
+                break;
+            default:
+                if (b == '<' && !stopped) {
+                    state = TAG;
+                    pendingLength = 0;
+                    quote = 0;
+                    pending[pendingLength++] = b;
+                } else {
+                    out.write(b);
+                }
+                break;
+        }
+    }
+
+    private void feedTag(byte b) throws IOException {
+        if (pendingLength == pending.length) {
+            // Not a tag we care about, or a malformed one: pass it through.
+            out.write(pending, 0, pendingLength);
+            state = TEXT;
+            feed(b);
+            return;
+        }
+        pending[pendingLength++] = b;
+        if (pendingLength == 4 && pending[1] == '!' && pending[2] == '-' && pending[3] == '-') {
+            out.write(pending, 0, pendingLength);
+            state = COMMENT;
+            matched = 0;
+            return;
+        }
+        if (pendingLength == 2 && !isLetter(b) && b != '!' && b != '/') {
+            // A bare '<' in text.
+            out.write(pending, 0, pendingLength);
+            state = TEXT;
+            return;
+        }
+        if (quote != 0) {
+            if (b == quote) {
+                quote = 0;
+            }
+        } else if ((b == '"' || b == '\'') && isLetter(pending[1])) {
+            quote = b;
+        } else if (b == '>') {
+            state = TEXT;
+            completeTag();
+        }
+    }
+
+    private void completeTag() throws IOException {
+        String tag = new String(pending, 0, pendingLength, StandardCharsets.ISO_8859_1);
+        String name = tagName(tag);
+        if ("script".equals(name)) {
+            byte[] inline = inlineScript(tag);
+            if (inline != null) {
+                heldTag = tag.getBytes(StandardCharsets.ISO_8859_1);
+                replacement = inline;
+                pendingLength = 0;
+                matched = 0;
+                state = SCRIPT_CLOSE;
+                return;
+            }
+            out.write(pending, 0, pendingLength);
+            enterRawText(SCRIPT_END);
+        } else if ("style".equals(name)) {
+            out.write(pending, 0, pendingLength);
+            enterRawText(STYLE_END);
+        } else if ("link".equals(name)) {
+            byte[] inline = inlineStylesheet(tag);
+            out.write(inline != null ? inline : tag.getBytes(StandardCharsets.ISO_8859_1));
+        } else {
+            if ("base".equals(name)) {
+                stopped = true;
+            }
+            out.write(pending, 0, pendingLength);
+        }
+    }
+
+    /**
+     * Expects optional whitespace and {@code </script>} after an inlinable script tag. On
+     * anything else the original tag and what followed it are replayed unchanged.
+     */
+    private void feedScriptClose(byte b) throws IOException {
+        if (pendingLength == pending.length) {
+            abandonScript(b);
+            return;
+        }
+        pending[pendingLength++] = b;
+        if (matched < SCRIPT_END.length) {
+            if (matched == 0 && isWhitespace(b)) {
+                return;
+            }
+            if (lower(b) == SCRIPT_END[matched]) {
+                matched++;
+                return;
+            }
+        } else if (b == '>') {
+            out.write(replacement);
+            inlinedBytes += replacement.length;
+            inlinedScripts++;
+            heldTag = null;
+            replacement = null;
+            state = TEXT;
+            return;
+        } else if (isWhitespace(b)) {
+            return;
+        }
+        pendingLength--;
+        abandonScript(b);
+    }
+
+    private void abandonScript(byte b) throws IOException {
+        byte[] followed = new byte[pendingLength + 1];
+        System.arraycopy(pending, 0, followed, 0, pendingLength);
+        followed[pendingLength] = b;
+        out.write(heldTag);
+        heldTag = null;
+        replacement = null;
+        enterRawText(SCRIPT_END);
+        for (byte next : followed) {
+            feed(next);
+        }
+    }
+
+    private void enterRawText(byte[] end) {
+        state = RAW_TEXT;
+        rawEnd = end;
+        matched = 0;
+    }
+
+    private void finish() throws IOException {
+        if (state == TAG) {
+            out.write(pending, 0, pendingLength);
+        } else if (state == SCRIPT_CLOSE) {
+            out.write(heldTag);
+            out.write(pending, 0, pendingLength);
+        }
+        state = TEXT;
+    }
+
+    private byte[] inlineScript(String tag) {
+        List<String[]> attributes = PreloadScanner.parseAttributes(attributeText(tag));
+        String src = PreloadScanner.attribute(attributes, "src");
+        if (src == null) {
+            return null;
+        }
+        String type = PreloadScanner.attribute(attributes, "type");
+        type = type != null ? type.trim().toLowerCase(Locale.US) : "";
+        if (!type.isEmpty() && !type.contains("javascript") && !type.contains("ecmascript")) {
+            return null;
+        }
+        for (String[] attribute : attributes) {
+            String name = attribute[0];
+            if ("async".equals(name) || "defer".equals(name) || "nomodule".equals(name) ||
+                    "integrity".equals(name) || name.startsWith("on")) {
+                return null;
+            }
+        }
+        String path = resolve(src);
+        byte[] content = path != null ? load(path) : null;
+        if (content == null || containsIgnoreCase(content, "</script") || containsIgnoreCase(content, "<!--")) {
+            return null;
+        }
+        StringBuilder open = new StringBuilder("<script");
+        appendAttributes(open, attributes, "src", "charset", "crossorigin", "referrerpolicy", "fetchpriority");
+        open.append(" data-inlined=\"").append(escapeAttribute(path)).append("\">");
+        return concat(open.toString(), content, "\n//# sourceURL=" + path + "\n</script>");
+    }
+
+    private byte[] inlineStylesheet(String tag) {
+        List<String[]> attributes = PreloadScanner.parseAttributes(attributeText(tag));
+        String rel = PreloadScanner.attribute(attributes, "rel");
+        String href = PreloadScanner.attribute(attributes, "href");
+        String media = PreloadScanner.attribute(attributes, "media");
+        if (rel == null || href == null || !"stylesheet".equals(rel.trim().toLowerCase(Locale.US)) ||
+                (media != null && !media.trim().isEmpty() && !"all".equalsIgnoreCase(media.trim())) ||
+                PreloadScanner.attribute(attributes, "title") != null ||
+                PreloadScanner.attribute(attributes, "integrity") != null ||
+                PreloadScanner.attribute(attributes, "disabled") != null) {
+            return null;
+        }
+        String path = resolve(href);
+        byte[] content = path != null ? load(path) : null;
+        if (content == null || containsIgnoreCase(content, "</style")) {
+            return null;
+        }
+        // Relative url() and @import references resolve against the document once inline.
+        if (!directory(path).equals(directory(documentPath)) &&
+                (containsIgnoreCase(content, "url(") || containsIgnoreCase(content, "@import"))) {
+            return null;
+        }
+        StringBuilder open = new StringBuilder("<style");
+        String id = PreloadScanner.attribute(attributes, "id");
+        if (id != null) {
+            open.append(" id=\"").append(escapeAttribute(id)).append('"');
+        }
+        String nonce = PreloadScanner.attribute(attributes, "nonce");
+        if (nonce != null) {
+            open.append(" nonce=\"").append(escapeAttribute(nonce)).append('"');
+        }
+        open.append(" data-inlined=\"").append(escapeAttribute(path)).append("\">");
+        byte[] inline = concat(open.toString(), content, "</style>");
+        inlinedBytes += inline.length;
+        inlinedStyles++;
+        return inline;
+    }
+
+    private String resolve(String reference) {
+        String path = PreloadScanner.resolveReference(documentPath, reference);
+        if (path == null || (path.startsWith("/") && !allowRootAbsolute)) {
+            return null;
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        path = AssetFingerprints.stripPrefix(path);
+        return whitelist.allows(path) ? path : null;
+    }
+
+    private byte[] load(String path) {
+        int budget = Math.min(MAX_ASSET_BYTES, MAX_TOTAL_BYTES - inlinedBytes);
+        return budget > 0 ? loader.load(path, budget) : null;
+    }
+
+    private static String tagName(String tag) {
+        int end = 1;
+        while (end < tag.length() && isLetter((byte) tag.charAt(end))) {
+            end++;
+        }
+        return tag.substring(1, end).toLowerCase(Locale.US);
+    }
+
+    private static String attributeText(String tag) {
+        int start = 1;
+        while (start < tag.length() && isLetter((byte) tag.charAt(start))) {
+            start++;
+        }
+        int end = tag.endsWith("/>") ? tag.length() - 2 : tag.length() - 1;
+        return start < end ? tag.substring(start, end) : "";
+    }
+
+    private static void appendAttributes(StringBuilder tag, List<String[]> attributes, String... skipped) {
+        outer:
+        for (String[] attribute : attributes) {
+            for (String skip : skipped) {
+                if (skip.equals(attribute[0])) {
+                    continue outer;
+                }
+            }
+            tag.append(' ').append(attribute[0]);
+            if (!attribute[1].isEmpty()) {
+                tag.append("=\"").append(escapeAttribute(attribute[1])).append('"');
+            }
+        }
+    }
+
+    private static String escapeAttribute(String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;");
+    }
+
+    private static String directory(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash >= 0 ? path.substring(0, slash + 1) : "";
+    }
+
+    private static byte[] concat(String open, byte[] content, String close) {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream(open.length() + content.length + close.length());
+        byte[] head = open.getBytes(StandardCharsets.UTF_8);
+        byte[] tail = close.getBytes(StandardCharsets.UTF_8);
+        joined.write(head, 0, head.length);
+        joined.write(content, 0, content.length);
+        joined.write(tail, 0, tail.length);
+        return joined.toByteArray();
+    }
+
+    private static boolean containsIgnoreCase(byte[] content, String needle) {
+        int length = needle.length();
+        outer:
+        for (int i = 0; i + length <= content.length; i++) {
+            for (int j = 0; j < length; j++) {
+                if (lower(content[i + j]) != needle.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+}
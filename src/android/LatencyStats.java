@@ -0,0 +1,65 @@
+package com.cordova.geckoview;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Thread-safe latency recorder: running count, mean and max, plus percentiles over a
+ * ring of the most recent samples.
+ */
+final class LatencyStats {
+
+    private static final int WINDOW = 256;
+
+    private final String name;
+    private final long[] window = new long[WINDOW];
+    private int next;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    LatencyStats(String name) {
+        this.name = name;
+    }
+
+    synchronized void record(long nanos) {
+        window[next] = nanos;
+        next = (next + 1) % WINDOW;
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile (0-100) of the recent window in nanoseconds.
+     */
+    synchronized long percentileNanos(int percentile) {
+        int size = (int) Math.min(count, WINDOW);
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(window, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    synchronized String toJson() {
+        double meanUs = count > 0 ? totalNanos / (double) count / 1000.0 : 0;
+        return String.format(Locale.US,
+                "{\"name\":\"%s\",\"count\":%d,\"meanUs\":%.1f,\"p50Us\":%.1f,\"p99Us\":%.1f,\"maxUs\":%.1f}",
+                name, count, meanUs,
+                percentileNanos(50) / 1000.0, percentileNanos(99) / 1000.0, maxNanos / 1000.0);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
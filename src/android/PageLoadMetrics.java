@@ -0,0 +1,158 @@
+package com.cordova.geckoview;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bounded in-memory store of per-navigation load timings.
+ *
+ * Each record covers one top-level navigation: page start, first contentful paint and
+ * page stop from GeckoView, the local server requests served while it was current, and
+ * the page's own PerformanceNavigationTiming entry (with {@code deviceReadyMs} once
+ * Cordova fired deviceready). Times are milliseconds relative to page start, taken from
+ * {@link System#nanoTime()}.
+ */
+final class PageLoadMetrics {
+
+    static final int MAX_RECORDS = 20;
+    static final int MAX_REQUESTS_PER_RECORD = 200;
+
+    static final class RequestEntry {
+        final String path;
+        final int status;
+        final long bytes;
+        final double startMs;
+        final double durationMs;
+
+        RequestEntry(String path, int status, long bytes, double startMs, double durationMs) {
+            this.path = path;
+            this.status = status;
+            this.bytes = bytes;
+            this.startMs = startMs;
+            this.durationMs = durationMs;
+        }
+    }
+
+    static final class Record {
+        final String url;
+        final long startNanos;
+        double firstContentfulPaintMs = -1;
+        double stopMs = -1;
+        boolean success;
+        String navigationTiming;
+        final List<RequestEntry> requests = new ArrayList<>();
+        int droppedRequests;
+
+        Record(String url, long startNanos) {
+            this.url = url;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private final ArrayDeque<Record> records = new ArrayDeque<>();
+
+    synchronized void onPageStart(String url) {
+        if (records.size() >= MAX_RECORDS) {
+            records.removeFirst();
+        }
+        records.addLast(new Record(url, System.nanoTime()));
+    }
+
+    synchronized void onFirstContentfulPaint() {
+        Record current = records.peekLast();
+        if (current != null && current.firstContentfulPaintMs < 0) {
+            current.firstContentfulPaintMs = sinceStart(current, System.nanoTime());
+        }
+    }
+
+    synchronized void onPageStop(boolean success) {
+        Record current = records.peekLast();
+        if (current != null && current.stopMs < 0) {
+            current.stopMs = sinceStart(current, System.nanoTime());
+            current.success = success;
+        }
+    }
+
+    synchronized void onNavigationTiming(String json) {
+        Record current = records.peekLast();
+        if (current != null && json != null && json.startsWith("{") && json.endsWith("}")) {
+            current.navigationTiming = json;
+        }
+    }
+
+    synchronized void onRequestServed(String path, int status, long bytes, long startNanos, long durationNanos) {
+        Record current = records.peekLast();
+        if (current == null) {
+            return;
+        }
+        if (current.requests.size() >= MAX_REQUESTS_PER_RECORD) {
+            current.droppedRequests++;
+            return;
+        }
+        current.requests.add(new RequestEntry(path, status, bytes,
+                sinceStart(current, startNanos), durationNanos / 1e6));
+    }
+
+    /**
+     * Returns the most recent record, or {@code null} if nothing was recorded yet.
+     */
+    synchronized Record latest() {
+        return records.peekLast();
+    }
+
+    synchronized void clear() {
+        records.clear();
+    }
+
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder("[");
+        Iterator<Record> it = records.iterator();
+        while (it.hasNext()) {
+            appendRecord(json, it.next());
+            if (it.hasNext()) {
+                json.append(',');
+            }
+        }
+        return json.append(']').toString();
+    }
+
+    private static void appendRecord(StringBuilder json, Record record) {
+        json.append("{\"url\":\"").append(jsonEscape(record.url)).append('"')
+            .append(",\"firstContentfulPaintMs\":").append(format(record.firstContentfulPaintMs))
+            .append(",\"stopMs\":").append(format(record.stopMs))
+            .append(",\"success\":").append(record.success)
+            .append(",\"navigationTiming\":")
+            .append(record.navigationTiming != null ? record.navigationTiming : "null")
+            .append(",\"droppedRequests\":").append(record.droppedRequests)
+            .append(",\"requests\":[");
+        for (int i = 0; i < record.requests.size(); i++) {
+            RequestEntry entry = record.requests.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"path\":\"").append(jsonEscape(entry.path)).append('"')
+                .append(",\"status\":").append(entry.status)
+                .append(",\"bytes\":").append(entry.bytes)
+                .append(",\"startMs\":").append(format(entry.startMs))
+                .append(",\"durationMs\":").append(format(entry.durationMs))
+                .append('}');
+        }
+        json.append("]}");
+    }
+
+    private static double sinceStart(Record record, long nanos) {
+        return (nanos - record.startNanos) / 1e6;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    private static String jsonEscape(String text) {
+        String value = text == null ? "" : text;
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,207 @@
+package com.cordova.geckoview;
+
+import android.content.Context;
+
+import org.apache.cordova.CordovaPreferences;
+import org.apache.cordova.LOG;
+
+import org.mozilla.geckoview.GeckoRuntimeSettings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps config.xml preferences to GeckoRuntimeSettings and Gecko prefs.
+ *
+ * A named preset ({@code GeckoPerformanceProfile}: low-memory, balanced, throughput)
+ * supplies the defaults; individual preferences override it:
+ *
+ * - GeckoContentProcessLimit (1-8)    dom.ipc.processCount
+ * - GeckoJitEnabled                   javascript.options.baselinejit / ion
+ * - GeckoWasmEnabled                  javascript.options.wasm
+ * - GeckoMemoryCacheKb                browser.cache.memory.capacity
+ * - GeckoDiskCacheKb                  browser.cache.disk.capacity
+ * - GeckoImageCacheKb                 image.mem.surfacecache.max_size_kb
+ * - GeckoConsoleOutput                GeckoRuntimeSettings.consoleOutput
+ * - GeckoFontInflation                GeckoRuntimeSettings.fontInflation
+ *
+ * Numeric values of -1 leave Gecko's own default in place. Only consoleOutput and
+ * fontInflation have GeckoRuntimeSettings setters. The Gecko prefs can only reach the
+ * runtime through a generated YAML config file passed as {@code configFilePath}, which
+ * GeckoView reads in debuggable builds only. They are therefore debug-only: release
+ * builds skip the file, and {@link #toJson()} reports whether the prefs were applied.
+ */
+final class PerformanceProfile {
+
+    private static final String TAG = "PerformanceProfile";
+    private static final String CONFIG_FILE_NAME = "geckoview-config.yaml";
+
+    static final String PRESET_LOW_MEMORY = "low-memory";
+    static final String PRESET_BALANCED = "balanced";
+    static final String PRESET_THROUGHPUT = "throughput";
+
+    final String preset;
+    final int contentProcessLimit;
+    final boolean jitEnabled;
+    final boolean wasmEnabled;
+    final int memoryCacheKb;
+    final int diskCacheKb;
+    final int imageCacheKb;
+    final boolean consoleOutput;
+    final boolean fontInflation;
+    // Whether the Gecko prefs were handed to the runtime; set by applyTo.
+    private volatile boolean prefsApplied;
+
+    private PerformanceProfile(String preset, int contentProcessLimit, boolean jitEnabled,
+                               boolean wasmEnabled, int memoryCacheKb, int diskCacheKb,
+                               int imageCacheKb, boolean consoleOutput, boolean fontInflation) {
+        this.preset = preset;
+        this.contentProcessLimit = contentProcessLimit;
+        this.jitEnabled = jitEnabled;
+        this.wasmEnabled = wasmEnabled;
+        this.memoryCacheKb = memoryCacheKb;
+        this.diskCacheKb = diskCacheKb;
+        this.imageCacheKb = imageCacheKb;
+        this.consoleOutput = consoleOutput;
+        this.fontInflation = fontInflation;
+    }
+
+    private static PerformanceProfile preset(String name, boolean debug) {
+        switch (name) {
+            case PRESET_LOW_MEMORY:
+                return new PerformanceProfile(name, 1, true, true, 2048, 51200, 16384, debug, false);
+            case PRESET_THROUGHPUT:
+                return new PerformanceProfile(name, 2, true, true, 32768, -1, 65536, debug, false);
+            case PRESET_BALANCED:
+            default:
+                return new PerformanceProfile(PRESET_BALANCED, -1, true, true, -1, -1, -1, debug, false);
+        }
+    }
+
+    /**
+     * Builds and validates the profile. Invalid values are logged and replaced by the
+     * preset's value, so a bad config.xml never prevents the runtime from starting.
+     */
+    static PerformanceProfile fromPreferences(CordovaPreferences preferences, boolean debug) {
+        String name = preferences != null
+                ? preferences.getString("GeckoPerformanceProfile", PRESET_BALANCED)
+                : PRESET_BALANCED;
+        name = name == null ? PRESET_BALANCED : name.trim().toLowerCase(Locale.US);
+        if (!PRESET_LOW_MEMORY.equals(name) && !PRESET_BALANCED.equals(name) &&
+                !PRESET_THROUGHPUT.equals(name)) {
+            LOG.w(TAG, "Unknown GeckoPerformanceProfile '" + name + "', using " + PRESET_BALANCED);
+            name = PRESET_BALANCED;
+        }
+        PerformanceProfile base = preset(name, debug);
+        if (preferences == null) {
+            return base;
+        }
+        return new PerformanceProfile(
+                base.preset,
+                readInt(preferences, "GeckoContentProcessLimit", base.contentProcessLimit, 1, 8),
+                preferences.getBoolean("GeckoJitEnabled", base.jitEnabled),
+                preferences.getBoolean("GeckoWasmEnabled", base.wasmEnabled),
+                readInt(preferences, "GeckoMemoryCacheKb", base.memoryCacheKb, 0, 1024 * 1024),
+                readInt(preferences, "GeckoDiskCacheKb", base.diskCacheKb, 0, 4 * 1024 * 1024),
+                readInt(preferences, "GeckoImageCacheKb", base.imageCacheKb, 1024, 1024 * 1024),
+                preferences.getBoolean("GeckoConsoleOutput", base.consoleOutput),
+                preferences.getBoolean("GeckoFontInflation", base.fontInflation));
+    }
+
+    private static int readInt(CordovaPreferences preferences, String name, int fallback, int min, int max) {
+        int value;
+        try {
+            value = preferences.getInteger(name, fallback);
+        } catch (NumberFormatException e) {
+            LOG.w(TAG, "Ignoring non-numeric " + name);
+            return fallback;
+        }
+        if (value == -1 || value == fallback) {
+            return value;
+        }
+        if (value < min || value > max) {
+            LOG.w(TAG, "Ignoring out of range " + name + "=" + value + " (expected " + min + "-" + max + ")");
+            return fallback;
+        }
+        return value;
+    }
+
+    Map<String, Object> toGeckoPrefs() {
+        Map<String, Object> prefs = new LinkedHashMap<>();
+        if (contentProcessLimit > 0) {
+            prefs.put("dom.ipc.processCount", contentProcessLimit);
+        }
+        prefs.put("javascript.options.baselinejit", jitEnabled);
+        prefs.put("javascript.options.ion", jitEnabled);
+        prefs.put("javascript.options.wasm", wasmEnabled);
+        if (memoryCacheKb >= 0) {
+            prefs.put("browser.cache.memory.capacity", memoryCacheKb);
+        }
+        if (diskCacheKb >= 0) {
+            prefs.put("browser.cache.disk.capacity", diskCacheKb);
+        }
+        if (imageCacheKb >= 0) {
+            prefs.put("image.mem.surfacecache.max_size_kb", imageCacheKb);
+        }
+        return prefs;
+    }
+
+    /**
+     * @param debuggable whether the app is debuggable, the only case in which GeckoView
+     *                   reads the config file carrying the Gecko prefs
+     */
+    void applyTo(GeckoRuntimeSettings.Builder builder, Context context, boolean debuggable) {
+        builder.consoleOutput(consoleOutput)
+               .fontInflation(fontInflation);
+        if (!debuggable) {
+            LOG.d(TAG, "Release build: Gecko prefs of profile " + preset + " are not applied");
+            return;
+        }
+        File config = writeConfigFile(context);
+        if (config != null) {
+            builder.configFilePath(config.getAbsolutePath());
+            prefsApplied = true;
+        }
+    }
+
+    private File writeConfigFile(Context context) {
+        if (context == null) {
+            return null;
+        }
+        StringBuilder yaml = new StringBuilder("prefs:\n");
+        for (Map.Entry<String, Object> pref : toGeckoPrefs().entrySet()) {
+            yaml.append("  ").append(pref.getKey()).append(": ").append(pref.getValue()).append('\n');
+        }
+        File file = new File(context.getFilesDir(), CONFIG_FILE_NAME);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(yaml.toString().getBytes(StandardCharsets.UTF_8));
+            return file;
+        } catch (IOException e) {
+            LOG.e(TAG, "Failed to write Gecko config file", e);
+            return null;
+        }
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder("{\"preset\":\"").append(preset).append('"')
+                .append(",\"consoleOutput\":").append(consoleOutput)
+                .append(",\"fontInflation\":").append(fontInflation)
+                .append(",\"debugOnlyPrefsApplied\":").append(prefsApplied)
+                .append(",\"debugOnlyPrefs\":{");
+        boolean first = true;
+        for (Map.Entry<String, Object> pref : toGeckoPrefs().entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(pref.getKey()).append("\":").append(pref.getValue());
+        }
+        return json.append("}}").toString();
+    }
+}
@@ -0,0 +1,19 @@
+package com.cordova.geckoview;
+
+/**
+ * Small persistent key/value store for the server's preferred port and self-update
+ * overrides. On Android this is a SharedPreferences file; writes may be applied
+ * asynchronously but must be visible to subsequent reads.
+ */
+interface PreferenceStore {
+
+    String getString(String key, String defValue);
+
+    int getInt(String key, int defValue);
+
+    void putString(String key, String value);
+
+    void putInt(String key, int value);
+
+    void remove(String key);
+}
@@ -0,0 +1,274 @@
+package com.cordova.geckoview;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntSupplier;
+
+/**
+ * Background queue that warms the server caches with assets the app expects to need
+ * next, one asset at a time on a single minimum-priority thread.
+ *
+ * Jobs run in submission order, high-priority jobs first. Before each asset of a
+ * low-priority job the worker waits (up to {@link #MAX_YIELD_MS}) for foreground
+ * requests to drain, so warming never competes with what is on screen. Jobs can be
+ * cancelled, polled and awaited by id; the most recent {@link #MAX_JOBS} are kept.
+ */
+final class PrefetchQueue {
+
+    enum Priority {
+        HIGH, LOW;
+
+        static Priority parse(String value) {
+            return "high".equalsIgnoreCase(value) ? HIGH : LOW;
+        }
+    }
+
+    interface Loader {
+        /**
+         * @return true if the asset is now cached
+         */
+        boolean load(String path);
+    }
+
+    static final class Job {
+        final int id;
+        final Priority priority;
+        final List<String> paths;
+        final Loader loader;
+        // Guarded by the queue.
+        private int next;
+        private int loaded;
+        private int failed;
+        private boolean cancelled;
+        private boolean finished;
+
+        private Job(int id, Priority priority, List<String> paths, Loader loader) {
+            this.id = id;
+            this.priority = priority;
+            this.paths = paths;
+            this.loader = loader;
+            this.finished = paths.isEmpty();
+        }
+    }
+
+    // Build-time list of the assets behind each app route, one "<route> <path>" pair per
+    // line with the path relative to the app root.
+    static final String ROUTE_MANIFEST_NAME = "gecko-warm.txt";
+    static final int MAX_JOBS = 32;
+    static final long MAX_YIELD_MS = 1000;
+    private static final long YIELD_STEP_MS = 5;
+
+    private final IntSupplier foregroundRequests;
+    private final ArrayDeque<Job> high = new ArrayDeque<>();
+    private final ArrayDeque<Job> low = new ArrayDeque<>();
+    private final Map<Integer, Job> jobs = new LinkedHashMap<Integer, Job>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Job> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+    private int nextId = 1;
+    private Thread worker;
+    private boolean shutdown;
+
+    /**
+     * @param foregroundRequests number of asset requests currently being served
+     */
+    PrefetchQueue(IntSupplier foregroundRequests) {
+        this.foregroundRequests = foregroundRequests;
+    }
+
+    /**
+     * @return the app-relative paths listed for {@code route}, in manifest order
+     */
+    static List<String> parseRoute(String manifest, String route) {
+        List<String> paths = new ArrayList<>();
+        for (String line : manifest.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space > 0 && line.substring(0, space).equals(route)) {
+                String path = line.substring(space + 1).trim();
+                paths.add(path.startsWith("/") ? path.substring(1) : path);
+            }
+        }
+        return paths;
+    }
+
+    synchronized Job submit(List<String> paths, Priority priority, Loader loader) {
+        Job job = new Job(nextId++, priority, paths, loader);
+        jobs.put(job.id, job);
+        if (shutdown) {
+            job.cancelled = true;
+            job.finished = true;
+        }
+        if (!job.finished) {
+            (priority == Priority.HIGH ? high : low).add(job);
+            if (worker == null) {
+                worker = new Thread(this::runWorker, "gecko-prefetch");
+                worker.setDaemon(true);
+                worker.setPriority(Thread.MIN_PRIORITY);
+                worker.start();
+            }
+            notifyAll();
+        }
+        return job;
+    }
+
+    synchronized Job get(int id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancels one job; the asset being loaded for it, if any, still completes.
+     *
+     * @return false if the id is unknown or the job had already finished
+     */
+    synchronized boolean cancel(int id) {
+        Job job = jobs.get(id);
+        if (job == null || job.finished) {
+            return false;
+        }
+        high.remove(job);
+        low.remove(job);
+        job.cancelled = true;
+        job.finished = true;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @return the number of jobs cancelled
+     */
+    synchronized int cancelAll() {
+        int cancelled = 0;
+        for (Job job : jobs.values()) {
+            if (!job.finished) {
+                job.cancelled = true;
+                job.finished = true;
+                cancelled++;
+            }
+        }
+        high.clear();
+        low.clear();
+        notifyAll();
+        return cancelled;
+    }
+
+    /**
+     * Waits until the job finishes or {@code timeoutMs} passes.
+     *
+     * @return the job, finished or not, or {@code null} if the id is unknown
+     */
+    /**
+     * Cancels every job and stops the worker thread; later submissions finish cancelled.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        cancelAll();
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    synchronized Job await(int id, long timeoutMs) throws InterruptedException {
+        Job job = jobs.get(id);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (job != null && !job.finished) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return job;
+    }
+
+    synchronized String toJson(Job job) {
+        return "{\"id\":" + job.id +
+                ",\"priority\":\"" + job.priority.name().toLowerCase(Locale.US) + "\"" +
+                ",\"total\":" + job.paths.size() +
+                ",\"loaded\":" + job.loaded +
+                ",\"failed\":" + job.failed +
+                ",\"cancelled\":" + job.cancelled +
+                ",\"finished\":" + job.finished + "}";
+    }
+
+    private void runWorker() {
+        while (true) {
+            Job job;
+            String path;
+            synchronized (this) {
+                while (high.isEmpty() && low.isEmpty()) {
+                    if (shutdown) {
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                job = !high.isEmpty() ? high.peek() : low.peek();
+                path = job.paths.get(job.next++);
+                if (job.next == job.paths.size()) {
+                    (job.priority == Priority.HIGH ? high : low).poll();
+                }
+            }
+            if (job.priority == Priority.LOW) {
+                yieldToForeground();
+            }
+            if (finishIfCancelled(job)) {
+                continue;
+            }
+            boolean cached;
+            try {
+                cached = job.loader.load(path);
+            } catch (RuntimeException e) {
+                cached = false;
+            }
+            synchronized (this) {
+                if (cached) {
+                    job.loaded++;
+                } else {
+                    job.failed++;
+                }
+                if (!job.finished && job.loaded + job.failed == job.paths.size()) {
+                    job.finished = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void yieldToForeground() {
+        long waited = 0;
+        while (waited < MAX_YIELD_MS && foregroundRequests.getAsInt() > 0) {
+            try {
+                Thread.sleep(YIELD_STEP_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            waited += YIELD_STEP_MS;
+        }
+    }
+
+    /**
+     * Makes sure a cancelled job reads as finished, so waiters return.
+     */
+    private synchronized boolean finishIfCancelled(Job job) {
+        if (job.cancelled && !job.finished) {
+            job.finished = true;
+            notifyAll();
+        }
+        return job.cancelled;
+    }
+}
@@ -0,0 +1,438 @@
+package com.cordova.geckoview;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the critical subresources of an entry document so the server can announce them
+ * in {@code Link} preload headers before Gecko has parsed the HTML.
+ *
+ * Hints come from a build-time manifest ({@link #MANIFEST_NAME} in the app root) when
+ * there is one, otherwise from a scan of the document: external scripts (module scripts
+ * as {@code modulepreload}), stylesheets, existing preload links, and the first font of
+ * each {@code @font-face} in inline styles and in the linked stylesheets.
+ *
+ * Only same-origin references are kept. Relative ones are resolved against the entry
+ * document and returned relative to the app root, so the caller can add the mount
+ * prefix; root-absolute ones are passed through as the browser would request them.
+ */
+final class PreloadScanner {
+
+    /**
+     * One path per line, relative to the app root, optionally followed by the {@code as}
+     * type or {@code modulepreload}; '#' starts a comment. Without a type it is inferred
+     * from the extension.
+     */
+    static final String MANIFEST_NAME = "gecko-preload.txt";
+    static final int MAX_HINTS = 24;
+    // Larger documents and stylesheets are not scanned.
+    static final int MAX_SCAN_BYTES = 512 * 1024;
+
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final Pattern TAG = Pattern.compile("<(script|link|base|style)\\b([^>]*)>",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "([a-zA-Z_:][-a-zA-Z0-9_:.]*)(?:\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'=<>`]+)))?");
+    private static final Pattern STYLE_END = Pattern.compile("</style\\s*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FONT_FACE = Pattern.compile("@font-face\\s*\\{([^}]*)\\}",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern FONT_SRC = Pattern.compile("(?<![-\\w])src\\s*:([^;]*)",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern CSS_URL = Pattern.compile("url\\(\\s*(?:\"([^\"]*)\"|'([^']*)'|([^)\\s]*))\\s*\\)",
+            Pattern.CASE_INSENSITIVE);
+    // Scheme and host that stand in for the app root while resolving references.
+    private static final String APP_ORIGIN = "http://app";
+
+    /**
+     * Reads a stylesheet referenced by the document, by path relative to the app root.
+     */
+    interface StylesheetLoader {
+        /**
+         * @return the stylesheet text, or {@code null} if it is missing or too large
+         */
+        String load(String relativePath);
+    }
+
+    static final class Hint {
+        // Relative to the app root, or a root-absolute URL path when rootAbsolute is set.
+        final String path;
+        final boolean rootAbsolute;
+        final String rel;
+        final String as;
+        final String type;
+        final boolean crossOrigin;
+
+        Hint(String path, boolean rootAbsolute, String rel, String as, String type, boolean crossOrigin) {
+            this.path = path;
+            this.rootAbsolute = rootAbsolute;
+            this.rel = rel;
+            this.as = as;
+            this.type = type;
+            this.crossOrigin = crossOrigin;
+        }
+
+        /**
+         * The hint as a mount-relative request path.
+         */
+        String requestPath() {
+            return encodePath(rootAbsolute ? path : "/" + path);
+        }
+
+        /**
+         * Formats this hint as one {@code Link} header value for a mount serving at
+         * {@code mountPrefix}.
+         */
+        String toLinkValue(String mountPrefix) {
+            String url = rootAbsolute ? path : mountPrefix + "/" + path;
+            StringBuilder value = new StringBuilder();
+            value.append('<').append(encodePath(url)).append(">; rel=").append(rel);
+            if (as != null) {
+                value.append("; as=").append(as);
+            }
+            if (type != null) {
+                value.append("; type=\"").append(type).append('"');
+            }
+            if (crossOrigin) {
+                value.append("; crossorigin");
+            }
+            return value.toString();
+        }
+    }
+
+    private PreloadScanner() {
+    }
+
+    /**
+     * Parses a build-time manifest.
+     */
+    static List<Hint> parseManifest(String text) {
+        List<Hint> hints = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+        for (String line : text.split("\n")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            String[] parts = line.trim().split("\\s+");
+            if (parts[0].isEmpty() || hints.size() >= MAX_HINTS) {
+                continue;
+            }
+            boolean rootAbsolute = parts[0].startsWith("/");
+            String path = rootAbsolute ? parts[0] : stripDotSlash(parts[0]);
+            if (!isSameOrigin(path) || !seen.add(path)) {
+                continue;
+            }
+            String kind = parts.length > 1 ? parts[1].toLowerCase(Locale.US) : null;
+            Hint hint = "modulepreload".equals(kind)
+                    ? new Hint(path, rootAbsolute, "modulepreload", null, null, false)
+                    : hintFor(path, rootAbsolute, kind);
+            if (hint != null) {
+                hints.add(hint);
+            }
+        }
+        return hints;
+    }
+
+    /**
+     * Scans an entry document.
+     *
+     * @param entryPath   path of the document relative to the app root
+     * @param stylesheets loads linked stylesheets for their fonts; may be {@code null}
+     */
+    static List<Hint> scan(String html, String entryPath, StylesheetLoader stylesheets) {
+        List<Hint> hints = new ArrayList<>();
+        Set<String> seen = new LinkedHashSet<>();
+        String text = COMMENT.matcher(html).replaceAll("");
+        URI documentUri = appUri(entryPath);
+        if (documentUri == null) {
+            return hints;
+        }
+        Matcher tags = TAG.matcher(text);
+        while (tags.find() && hints.size() < MAX_HINTS) {
+            String name = tags.group(1).toLowerCase(Locale.US);
+            if ("style".equals(name)) {
+                Matcher end = STYLE_END.matcher(text);
+                int bodyEnd = end.find(tags.end()) ? end.start() : text.length();
+                addFonts(hints, seen, text.substring(tags.end(), bodyEnd), documentUri, false);
+                continue;
+            }
+            List<String[]> attributes = parseAttributes(tags.group(2));
+            if ("base".equals(name)) {
+                String href = attribute(attributes, "href");
+                URI base = href != null ? resolve(documentUri, href) : null;
+                if (base != null) {
+                    documentUri = base;
+                }
+            } else if ("script".equals(name)) {
+                addScript(hints, seen, attributes, documentUri);
+            } else {
+                addLink(hints, seen, attributes, documentUri, stylesheets);
+            }
+        }
+        return hints.size() > MAX_HINTS ? new ArrayList<>(hints.subList(0, MAX_HINTS)) : hints;
+    }
+
+    private static void addScript(List<Hint> hints, Set<String> seen, List<String[]> attributes, URI documentUri) {
+        String src = attribute(attributes, "src");
+        if (src == null || attribute(attributes, "nomodule") != null) {
+            return;
+        }
+        String type = attribute(attributes, "type");
+        type = type != null ? type.trim().toLowerCase(Locale.US) : "";
+        if ("module".equals(type)) {
+            add(hints, seen, documentUri, src, "modulepreload", null, null, false);
+        } else if (type.isEmpty() || type.contains("javascript") || type.contains("ecmascript")) {
+            add(hints, seen, documentUri, src, "preload", "script", null, false);
+        }
+    }
+
+    private static void addLink(List<Hint> hints, Set<String> seen, List<String[]> attributes, URI documentUri,
+                                StylesheetLoader stylesheets) {
+        String href = attribute(attributes, "href");
+        String rel = attribute(attributes, "rel");
+        if (href == null || rel == null) {
+            return;
+        }
+        List<String> rels = Arrays.asList(rel.trim().toLowerCase(Locale.US).split("\\s+"));
+        if (rels.contains("stylesheet") && !rels.contains("alternate")) {
+            Hint hint = add(hints, seen, documentUri, href, "preload", "style", null, false);
+            if (hint != null && stylesheets != null) {
+                String relative = hint.rootAbsolute ? hint.path.substring(1) : hint.path;
+                String css = stylesheets.load(relative);
+                URI cssUri = css != null ? resolve(documentUri, href) : null;
+                if (cssUri != null) {
+                    addFonts(hints, seen, css, cssUri, hint.rootAbsolute);
+                }
+            }
+        } else if (rels.contains("modulepreload")) {
+            add(hints, seen, documentUri, href, "modulepreload", null, null, false);
+        } else if (rels.contains("preload")) {
+            String as = attribute(attributes, "as");
+            if (as != null && !as.trim().isEmpty()) {
+                add(hints, seen, documentUri, href, "preload", as.trim().toLowerCase(Locale.US),
+                        attribute(attributes, "type"), attribute(attributes, "crossorigin") != null);
+            }
+        }
+    }
+
+    /**
+     * Adds the first font URL of each {@code @font-face} rule; browsers download only one
+     * source per face, and the first is the preferred format.
+     */
+    private static void addFonts(List<Hint> hints, Set<String> seen, String css, URI cssUri, boolean rootAbsolute) {
+        Matcher faces = FONT_FACE.matcher(css);
+        while (faces.find() && hints.size() < MAX_HINTS) {
+            Matcher src = FONT_SRC.matcher(faces.group(1));
+            if (!src.find()) {
+                continue;
+            }
+            Matcher urls = CSS_URL.matcher(src.group(1));
+            while (urls.find()) {
+                String url = firstNonNull(urls.group(1), urls.group(2), urls.group(3));
+                String type = fontType(url);
+                if (type == null) {
+                    continue;
+                }
+                URI resolved = resolve(cssUri, url);
+                String path = resolved != null ? appPath(resolved) : null;
+                String key = path != null && rootAbsolute ? "/" + path : path;
+                if (key != null && seen.add(key)) {
+                    hints.add(new Hint(key, rootAbsolute, "preload", "font", type, true));
+                }
+                break;
+            }
+        }
+    }
+
+    private static Hint add(List<Hint> hints, Set<String> seen, URI documentUri, String reference,
+                            String rel, String as, String type, boolean crossOrigin) {
+        String value = reference.trim();
+        if (!isSameOrigin(value)) {
+            return null;
+        }
+        boolean rootAbsolute = value.startsWith("/");
+        URI resolved = resolve(documentUri, value);
+        String path = resolved != null ? appPath(resolved) : null;
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        String key = rootAbsolute ? "/" + path : path;
+        if (!seen.add(key)) {
+            return null;
+        }
+        Hint hint = new Hint(key, rootAbsolute, rel, as, type, crossOrigin);
+        hints.add(hint);
+        return hint;
+    }
+
+    private static Hint hintFor(String path, boolean rootAbsolute, String as) {
+        String lower = path.toLowerCase(Locale.US);
+        int query = lower.indexOf('?');
+        if (query >= 0) {
+            lower = lower.substring(0, query);
+        }
+        if (as == null) {
+            if (lower.endsWith(".mjs")) {
+                return new Hint(path, rootAbsolute, "modulepreload", null, null, false);
+            } else if (lower.endsWith(".js")) {
+                as = "script";
+            } else if (lower.endsWith(".css")) {
+                as = "style";
+            } else if (fontType(lower) != null) {
+                as = "font";
+            } else if (lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg") ||
+                    lower.endsWith(".gif") || lower.endsWith(".webp") || lower.endsWith(".svg")) {
+                as = "image";
+            } else if (lower.endsWith(".json")) {
+                as = "fetch";
+            } else {
+                return null;
+            }
+        }
+        boolean crossOrigin = "font".equals(as) || "fetch".equals(as);
+        return new Hint(path, rootAbsolute, "preload", as, "font".equals(as) ? fontType(lower) : null, crossOrigin);
+    }
+
+    private static String fontType(String url) {
+        String lower = url.toLowerCase(Locale.US);
+        int end = lower.length();
+        for (char c : new char[]{'?', '#'}) {
+            int index = lower.indexOf(c);
+            if (index >= 0 && index < end) {
+                end = index;
+            }
+        }
+        lower = lower.substring(0, end);
+        if (lower.endsWith(".woff2")) {
+            return "font/woff2";
+        } else if (lower.endsWith(".woff")) {
+            return "font/woff";
+        } else if (lower.endsWith(".ttf")) {
+            return "font/ttf";
+        } else if (lower.endsWith(".otf")) {
+            return "font/otf";
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a reference in the document at {@code documentPath} (relative to the app
+     * root) to a decoded path relative to the app root, keeping any query. Root-absolute
+     * references come back with a leading '/'.
+     *
+     * @return {@code null} for cross-origin references and paths outside the app root
+     */
+    static String resolveReference(String documentPath, String reference) {
+        String value = reference.trim();
+        URI documentUri = appUri(documentPath);
+        if (documentUri == null || !isSameOrigin(value)) {
+            return null;
+        }
+        URI resolved = resolve(documentUri, value);
+        String path = resolved != null ? appPath(resolved) : null;
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        return value.startsWith("/") ? "/" + path : path;
+    }
+
+    private static boolean isSameOrigin(String reference) {
+        if (reference.isEmpty() || reference.startsWith("//") || reference.startsWith("#")) {
+            return false;
+        }
+        // A scheme ("https:", "data:") before any path character makes it absolute.
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c == ':') {
+                return false;
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+        }
+        return true;
+    }
+
+    private static URI appUri(String relativePath) {
+        try {
+            return new URI("http", "app", "/" + relativePath, null);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static URI resolve(URI base, String reference) {
+        try {
+            return base.resolve(encodePath(reference.trim()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the decoded path of {@code uri} relative to the app root, keeping any query,
+     * or {@code null} if it lies elsewhere.
+     */
+    private static String appPath(URI uri) {
+        if (!APP_ORIGIN.equals(uri.getScheme() + "://" + uri.getHost()) || uri.getPath() == null) {
+            return null;
+        }
+        String path = uri.getPath();
+        if (!path.startsWith("/") || path.startsWith("/../") || path.equals("/..")) {
+            return null;
+        }
+        String relative = path.substring(1);
+        return uri.getRawQuery() != null ? relative + "?" + uri.getRawQuery() : relative;
+    }
+
+    private static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c <= ' ' || c == '<' || c == '>' || c == '"' || c >= 0x7f) {
+                for (byte b : String.valueOf(c).getBytes(StandardCharsets.UTF_8)) {
+                    encoded.append('%').append(String.format(Locale.US, "%02X", b & 0xff));
+                }
+            } else {
+                encoded.append(c);
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String stripDotSlash(String path) {
+        return path.startsWith("./") ? path.substring(2) : path;
+    }
+
+    static List<String[]> parseAttributes(String text) {
+        List<String[]> attributes = new ArrayList<>();
+        Matcher matcher = ATTRIBUTE.matcher(text);
+        while (matcher.find()) {
+            String value = firstNonNull(matcher.group(2), matcher.group(3), matcher.group(4));
+            attributes.add(new String[]{matcher.group(1).toLowerCase(Locale.US), value != null ? value : ""});
+        }
+        return attributes;
+    }
+
+    static String attribute(List<String[]> attributes, String name) {
+        for (String[] attribute : attributes) {
+            if (attribute[0].equals(name)) {
+                return attribute[1];
+            }
+        }
+        return null;
+    }
+
+    private static String firstNonNull(String a, String b, String c) {
+        return a != null ? a : b != null ? b : c;
+    }
+}
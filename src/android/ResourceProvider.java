@@ -0,0 +1,39 @@
+package com.cordova.geckoview;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens and lists the resources the server core serves, addressed by the URI strings it
+ * resolves ({@code file:///android_asset/www/index.html}, {@code file:///data/...},
+ * {@code cdvfile://...}). On Android this wraps CordovaResourceApi and the AssetManager.
+ */
+interface ResourceProvider {
+
+    final class Resource {
+        final InputStream stream;
+        // Final Content-Type, already normalized by the provider.
+        final String mimeType;
+        // -1 if unknown
+        final long length;
+
+        Resource(InputStream stream, String mimeType, long length) {
+            this.stream = stream;
+            this.mimeType = mimeType;
+            this.length = length;
+        }
+    }
+
+    /**
+     * @throws java.io.FileNotFoundException if {@code uri} does not exist
+     */
+    Resource open(String uri) throws IOException;
+
+    /**
+     * Lists the direct children of the directory {@code uri} (which ends with '/').
+     * Directory names carry a trailing '/'.
+     *
+     * @return the child names, or {@code null} if the location cannot be listed
+     */
+    String[] list(String uri) throws IOException;
+}
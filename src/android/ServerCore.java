@@ -0,0 +1,1947 @@
+package com.cordova.geckoview;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal embedded HTTP server, free of Android and Cordova types.
+ *
+ * Resources, persisted settings and logging come in through {@link ResourceProvider},
+ * {@link PreferenceStore} and {@link ServerLogger}, so the same core runs inside the app
+ * (see {@link LocalHttpServer}) and on a desktop JVM against a directory of assets.
+ *
+ * One server is shared by every engine instance in the process. Each engine registers
+ * a {@link Mount}: the first one is served from the root, later ones live behind their
+ * own path prefix with separate default entry and override base.
+ */
+class ServerCore {
+
+    /**
+     * Notified after each request served for a mount, on the worker thread that served it.
+     */
+    interface RequestObserver {
+        void onRequestServed(String path, int status, long bytes, long startNanos, long durationNanos);
+    }
+
+    /**
+     * Answers engine endpoints ({@code /__gecko__/<name>}) that the server does not handle
+     * itself. Returns a JSON body, or {@code null} if the name is unknown.
+     */
+    interface EndpointHandler {
+        String handleEndpoint(String name, String requestUrl);
+    }
+
+    /**
+     * Receives the Cookie header of requests served for a mount, on the worker thread.
+     */
+    interface CookieObserver {
+        void onRequestCookies(String cookieHeader);
+    }
+
+    private static final String TAG = "LocalHttpServer";
+    private static final String LOCAL_HOST = "localhost";
+    private static final String ANDROID_ASSET_PREFIX = "file:///android_asset/";
+    private static final String DEFAULT_APP_BASE = "file:///android_asset/www/";
+    // Preferred port for a fresh install; the port is part of the page origin, so
+    // whichever port was bound last is reused to keep web storage stable.
+    private static final int DEFAULT_PORT = 8080;
+    private static final String MOUNT_PREFIX = "/_m";
+    private static final String CONTROL_PREFIX = "/__self_update__/";
+    private static final String ENGINE_PREFIX = "/__gecko__/";
+    private static final String PREF_OVERRIDE_BASE = "override_base";
+    private static final String PREF_OVERRIDE_ENTRY = "override_entry";
+    private static final String PREF_SERVER_PORT = "server_port";
+    // How long a request waits for another request's load of the same asset.
+    private static final long INFLIGHT_TIMEOUT_MS = 10000;
+    private static final int MAX_NEGATIVE_ENTRIES = 512;
+    private static final int MAX_INLINED_DOCUMENTS = 8;
+    private static final int MAX_FINGERPRINT_MAP_BYTES = 4 * 1024 * 1024;
+    private static final String BATCH_MIME_TYPE = "application/x-gecko-batch";
+    private static final int MAX_BATCH_PARTS = 64;
+    private static final int MAX_BATCH_PART_BYTES = 1024 * 1024;
+    private static final long MAX_PREFETCH_WAIT_MS = 30000;
+
+    private final ResourceProvider resources;
+    private final PreferenceStore preferences;
+    final ServerLogger log;
+    private volatile ExecutorService executor = Executors.newCachedThreadPool();
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile boolean running;
+    private boolean parked;
+    private volatile String baseUrl;
+    private final String appBase;
+    private final AssetCache assetCache =
+            new AssetCache(AssetCache.DEFAULT_MAX_BYTES, AssetCache.DEFAULT_MAX_ENTRY_BYTES);
+    private final Mount rootMount = new Mount(0);
+    private final List<Mount> secondaryMounts = new ArrayList<>();
+    private boolean rootClaimed;
+    private final UrlRouter router;
+    private final AssetIndex assetIndex = new AssetIndex();
+    private final DiskAssetCache diskCache;
+    // Only buffered bodies can be shared; waiters handed a stream reopen the resource.
+    private final SingleFlight<LoadedAsset> inflightLoads = new SingleFlight<>(asset -> asset.data != null);
+    // Fault injection; null (the normal case) costs one volatile read per request.
+    private volatile TrafficShaper shaper;
+    // Whether /__gecko__/shaping routes exist; off unless the host opts in.
+    private volatile boolean shapingControl;
+    // Critical subresources of entry documents by "<effective base>|<entry>", so each
+    // override base is scanned once.
+    private final Map<String, List<PreloadScanner.Hint>> preloadScans = new ConcurrentHashMap<>();
+    // Fingerprint maps by effective base; EMPTY where the app ships none.
+    private final Map<String, AssetFingerprints> fingerprintMaps = new ConcurrentHashMap<>();
+    // Entry documents with assets inlined, by "<base>|<entry>|<mount kind>|<whitelist>|<content hash>".
+    private final Map<String, InlinedDocument> inlinedDocuments =
+            new LinkedHashMap<String, InlinedDocument>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, InlinedDocument> eldest) {
+            return size() > MAX_INLINED_DOCUMENTS;
+        }
+    };
+    private final AtomicLong inlinedResponses = new AtomicLong();
+    private final AtomicLong inlinedRequestsSaved = new AtomicLong();
+    private final AtomicLong batchResponses = new AtomicLong();
+    private final AtomicLong batchedParts = new AtomicLong();
+    private final AtomicInteger activeAssetRequests = new AtomicInteger();
+    private final PrefetchQueue prefetchQueue = new PrefetchQueue(activeAssetRequests::get);
+    // Targets that failed to load ("<mount id>:<target>"), cleared whenever what a
+    // target resolves to can change (override switch, default entry change, trim).
+    private final Map<String, Boolean> missingTargets = new LinkedHashMap<String, Boolean>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_NEGATIVE_ENTRIES;
+        }
+    };
+
+    /**
+     * @param preferences may be {@code null}, in which case nothing is persisted
+     * @param diskCache   may be {@code null} to serve from memory only
+     */
+    ServerCore(ResourceProvider resources, PreferenceStore preferences, ServerLogger log,
+               String appBasePath, UrlRouter.Builder routes, DiskAssetCache diskCache) {
+        this.resources = resources;
+        this.preferences = preferences;
+        this.log = log;
+        String canonicalBase = isEmpty(appBasePath) ? DEFAULT_APP_BASE : appBasePath;
+        if (!canonicalBase.endsWith("/")) {
+            canonicalBase += "/";
+        }
+        this.appBase = canonicalBase;
+        this.diskCache = diskCache;
+        this.router = (routes != null ? routes : new UrlRouter.Builder()).build(appBase);
+    }
+
+    synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        long span = traceBegin();
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        int preferredPort = loadPreferredPort();
+        try {
+            serverSocket = new ServerSocket(preferredPort, 0, loopback);
+        } catch (IOException e) {
+            log.w(TAG, "Port " + preferredPort + " unavailable, using an ephemeral port", e);
+            serverSocket = new ServerSocket(0, 0, loopback);
+        }
+        traceEnd("serverBind", span);
+        savePreferredPort(serverSocket.getLocalPort());
+        running = true;
+        baseUrl = String.format(Locale.US, "http://%s:%d", LOCAL_HOST, serverSocket.getLocalPort());
+        startAcceptThread();
+        executor.execute(this::indexAppDirectory);
+    }
+
+    private void startAcceptThread() {
+        final ServerSocket socket = serverSocket;
+        acceptThread = new Thread(() -> acceptLoop(socket), "GeckoAssetServer");
+        acceptThread.start();
+    }
+
+    /**
+     * Stops accepting connections and lets the worker threads go while the app is in the
+     * background. The port is kept so {@link #unpark()} normally restores the same origin.
+     */
+    synchronized void park() {
+        if (!running || parked) {
+            return;
+        }
+        parked = true;
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        serverSocket = null;
+        executor.shutdown();
+        if (diskCache != null) {
+            diskCache.persistAccessTimes();
+        }
+        log.d(TAG, "Parked local server");
+    }
+
+    /**
+     * Rebinds a parked server. If another process took the port meanwhile, an ephemeral
+     * port is used as in {@link #start()}, so the origin and {@link #getBaseUrl()} change;
+     * callers compare the base URL to find out.
+     */
+    synchronized void unpark() throws IOException {
+        if (!parked) {
+            return;
+        }
+        int port = loadPreferredPort();
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        try {
+            socket.bind(new InetSocketAddress(loopback, port));
+        } catch (IOException e) {
+            log.w(TAG, "Port " + port + " unavailable on unpark, using an ephemeral port", e);
+            socket.close();
+            socket = new ServerSocket(0, 0, loopback);
+            port = socket.getLocalPort();
+            savePreferredPort(port);
+            baseUrl = String.format(Locale.US, "http://%s:%d", LOCAL_HOST, port);
+        }
+        serverSocket = socket;
+        executor = Executors.newCachedThreadPool();
+        parked = false;
+        running = true;
+        startAcceptThread();
+        log.d(TAG, "Unparked local server on port " + port);
+    }
+
+    synchronized boolean isParked() {
+        return parked;
+    }
+
+    private void acceptLoop(ServerSocket socket) {
+        while (running) {
+            try {
+                final Socket client = socket.accept();
+                executor.execute(() -> handleClient(client));
+            } catch (SocketException se) {
+                // Socket closed during shutdown.
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    synchronized void stop() {
+        running = false;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+            }
+            serverSocket = null;
+        }
+        executor.shutdownNow();
+        prefetchQueue.shutdown();
+        if (diskCache != null) {
+            diskCache.close();
+        }
+    }
+
+    private int loadPreferredPort() {
+        if (preferences == null) {
+            return DEFAULT_PORT;
+        }
+        return preferences.getInt(PREF_SERVER_PORT, DEFAULT_PORT);
+    }
+
+    private void savePreferredPort(int port) {
+        if (preferences == null || port == loadPreferredPort()) {
+            return;
+        }
+        preferences.putInt(PREF_SERVER_PORT, port);
+        log.d(TAG, "Saved preferred local server port " + port);
+    }
+
+    // Startup trace hooks, overridden by the Android adapter.
+
+    long traceBegin() {
+        return 0;
+    }
+
+    void traceEnd(String name, long span) {
+    }
+
+    void traceOnce(String name) {
+    }
+
+    String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Registers an engine instance. The first registration is served from the root,
+     * later ones get their own path prefix. Balance with {@link #unregisterMount(Mount)}.
+     */
+    synchronized Mount registerMount() {
+        if (!rootClaimed) {
+            rootClaimed = true;
+            return rootMount;
+        }
+        int id = 1;
+        boolean taken = true;
+        while (taken) {
+            taken = false;
+            for (Mount mount : secondaryMounts) {
+                if (mount.id == id) {
+                    taken = true;
+                    id++;
+                    break;
+                }
+            }
+        }
+        Mount mount = new Mount(id);
+        secondaryMounts.add(mount);
+        return mount;
+    }
+
+    synchronized void unregisterMount(Mount mount) {
+        if (mount == null) {
+            return;
+        }
+        mount.requestObserver = null;
+        mount.endpointHandler = null;
+        mount.cookieObserver = null;
+        if (mount == rootMount) {
+            rootClaimed = false;
+        } else {
+            secondaryMounts.remove(mount);
+        }
+    }
+
+    private synchronized Mount findMount(String rawPath) {
+        if (rawPath != null && rawPath.startsWith(MOUNT_PREFIX)) {
+            for (Mount mount : secondaryMounts) {
+                if (rawPath.startsWith(mount.prefix) &&
+                        (rawPath.length() == mount.prefix.length() ||
+                         rawPath.charAt(mount.prefix.length()) == '/' ||
+                         rawPath.charAt(mount.prefix.length()) == '?')) {
+                    return mount;
+                }
+            }
+        }
+        return rootMount;
+    }
+
+    UrlRouter getRouter() {
+        return router;
+    }
+
+    AssetIndex getAssetIndex() {
+        return assetIndex;
+    }
+
+    /**
+     * Releases server-side memory for a trim grade (1 light, 2 moderate, 3 critical).
+     *
+     * @return the number of bytes released
+     */
+    long trimMemory(int grade) {
+        if (diskCache != null && grade >= 1) {
+            diskCache.persistAccessTimes();
+        }
+        if (grade >= 2) {
+            // Warming would only evict what is cached again.
+            prefetchQueue.cancelAll();
+            clearMissingTargets();
+            clearInlinedDocuments();
+            return assetCache.clear();
+        }
+        if (grade == 1) {
+            return assetCache.trimTo(assetCache.sizeBytes() / 2);
+        }
+        return 0;
+    }
+
+    /**
+     * Drops every server-side response cache, e.g. after the runtime's caches were cleared.
+     *
+     * @return the number of bytes released
+     */
+    long invalidateCaches() {
+        clearMissingTargets();
+        preloadScans.clear();
+        fingerprintMaps.clear();
+        clearInlinedDocuments();
+        return clearAssetCaches();
+    }
+
+    private long clearAssetCaches() {
+        return assetCache.clear() + (diskCache != null ? diskCache.clear() : 0);
+    }
+
+    /**
+     * Enables fault injection with {@code shaper}, or disables it when {@code null}.
+     */
+    void setShaping(TrafficShaper shaper) {
+        this.shaper = shaper;
+        log.d(TAG, shaper != null ? "Network shaping enabled: " + shaper.spec : "Network shaping disabled");
+    }
+
+    /**
+     * Registers the {@code /__gecko__/shaping} routes, which let any page that reaches
+     * the port change shaping; without them those paths answer 404.
+     */
+    void setShapingControl(boolean enabled) {
+        shapingControl = enabled;
+    }
+
+    private void handleClient(Socket socket) {
+        try (Socket client = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+             OutputStream rawOut = new BufferedOutputStream(client.getOutputStream())) {
+
+            String requestLine = reader.readLine();
+            if (requestLine == null || requestLine.isEmpty()) {
+                return;
+            }
+            traceOnce("firstAssetRequest");
+            log.d(TAG, "Request line: " + requestLine);
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2) {
+                sendStatus(rawOut, "400 Bad Request", "Malformed request");
+                return;
+            }
+            String method = parts[0];
+            String path = parts[1];
+
+            // Consume and log request headers for debugging.
+            String headerLine;
+            String cookieHeader = null;
+            while ((headerLine = reader.readLine()) != null && headerLine.length() > 0) {
+                log.d(TAG, "Header: " + headerLine);
+                if (headerLine.regionMatches(true, 0, "Cookie:", 0, 7)) {
+                    cookieHeader = headerLine.substring(7).trim();
+                }
+            }
+
+            if (!"GET".equalsIgnoreCase(method)) {
+                sendStatus(rawOut, "405 Method Not Allowed", "Only GET supported");
+                return;
+            }
+
+            Mount mount = findMount(path);
+            CookieObserver cookieObserver = mount.cookieObserver;
+            if (cookieObserver != null && cookieHeader != null) {
+                cookieObserver.onRequestCookies(cookieHeader);
+            }
+            RequestObserver observer = mount.requestObserver;
+            if (observer == null) {
+                servePath(rawOut, mount, path);
+                return;
+            }
+            long started = System.nanoTime();
+            ResponseRecorder recorder = new ResponseRecorder(rawOut);
+            servePath(recorder, mount, path);
+            observer.onRequestServed(path, recorder.status, recorder.bytes,
+                    started, System.nanoTime() - started);
+        } catch (IOException e) {
+            // Ignore broken pipe etc.
+            log.e(TAG, "Error handling request", e);
+        }
+    }
+
+    private void servePath(OutputStream out, Mount mount, String requestPath) throws IOException {
+        log.d(TAG, "Serving path " + requestPath);
+        String rawPath = mount.stripPrefix(requestPath);
+        if (rawPath != null && rawPath.startsWith(CONTROL_PREFIX)) {
+            if (mount.handleControlPath(out, rawPath)) {
+                return;
+            }
+        }
+        if (rawPath != null && rawPath.startsWith(ENGINE_PREFIX)) {
+            handleEnginePath(out, mount, rawPath);
+            return;
+        }
+        out = shape(out, rawPath);
+        if (out == null) {
+            return;
+        }
+        activeAssetRequests.incrementAndGet();
+        try {
+            String[] fingerprinted = AssetFingerprints.split(rawPath);
+            if (fingerprinted == null) {
+                serveAsset(out, mount, rawPath, null);
+                return;
+            }
+            // A fingerprinted URL names one version of the asset, so it can be cached forever;
+            // unknown pairs are served the current content without that promise.
+            String assetPath = fingerprinted[1];
+            boolean known = fingerprintsFor(mount).matches(fingerprinted[0],
+                    UriCodec.decode(UriCodec.path(assetPath)).substring(1));
+            serveAsset(out, mount, assetPath, known ? AssetFingerprints.IMMUTABLE_HEADER : null);
+        } finally {
+            activeAssetRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Applies the active traffic shaping to one response.
+     *
+     * @return the stream to write the response to, or {@code null} if a fault was
+     * injected and already answered
+     */
+    private OutputStream shape(OutputStream out, String rawPath) throws IOException {
+        TrafficShaper shaper = this.shaper;
+        if (shaper == null) {
+            return out;
+        }
+        if (shaper.shapeRequest(rawPath != null ? rawPath : "/")) {
+            sendStatus(out, shaper.errorStatusLine(), "Injected fault");
+            return null;
+        }
+        return shaper.wrap(out);
+    }
+
+    /**
+     * @param extraHeaders header lines for a successful response, each terminated by CRLF,
+     *                     or {@code null}
+     */
+    private void serveAsset(OutputStream out, Mount mount, String rawPath, String extraHeaders) throws IOException {
+        String target = mount.resolveTarget(rawPath);
+        if (target == null) {
+            log.e(TAG, "No target resolved for " + rawPath, null);
+            sendStatus(out, "404 Not Found", "Not Found");
+            return;
+        }
+        String relative = mount.appRelativePath(target);
+        if (relative != null && mount.appliesSpaFallback(relative)) {
+            target = mount.resolveTarget("/");
+        } else if (isKnownMissing(mount, target, relative)) {
+            sendStatus(out, "404 Not Found", "Not Found");
+            return;
+        }
+        boolean entryDocument = (mount.preloadHints || mount.inlineAssets != null) && mount.isEntryDocument(target);
+        HtmlInliner.Whitelist inline = entryDocument ? mount.inlineAssets : null;
+        if (entryDocument && mount.preloadHints) {
+            String links = preloadLinks(mount);
+            if (links != null) {
+                if (mount.earlyHints) {
+                    out.write(("HTTP/1.1 103 Early Hints\r\nLink: " + links + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                }
+                extraHeaders = (extraHeaders != null ? extraHeaders : "") + "Link: " + links + "\r\n";
+            }
+        }
+        String cacheKey = target;
+        AssetCache.Entry cached = assetCache.get(cacheKey);
+        if (cached != null) {
+            sendBody(out, mount, inline, cached.mimeType, cached.data, extraHeaders);
+            return;
+        }
+        // An inlined entry document is rewritten from memory, so skip the disk copy.
+        DiskAssetCache.Entry stored = diskCache != null && inline == null ? diskCache.get(cacheKey) : null;
+        if (stored != null && sendStored(out, cacheKey, stored, extraHeaders)) {
+            return;
+        }
+
+        // Concurrent requests for the same target share a single load.
+        LoadedAsset asset;
+        String loadTarget = target;
+        try {
+            asset = inflightLoads.execute(cacheKey, INFLIGHT_TIMEOUT_MS,
+                    () -> loadAsset(mount, rawPath, loadTarget));
+        } catch (FileNotFoundException e) {
+            log.e(TAG, "File not found for " + target, e);
+            if (relative != null) {
+                rememberMissing(mount, cacheKey);
+            }
+            sendStatus(out, "404 Not Found", "Not Found");
+            return;
+        } catch (SingleFlight.TimeoutException e) {
+            log.e(TAG, "Timed out waiting for shared load of " + target, null);
+            sendStatus(out, "504 Gateway Timeout", "Timeout");
+            return;
+        } catch (IOException e) {
+            log.e(TAG, "Failed serving " + target, e);
+            sendStatus(out, "500 Internal Server Error", "Error");
+            return;
+        }
+
+        if (asset.data != null) {
+            sendBody(out, mount, inline, asset.mimeType, asset.data, extraHeaders);
+            return;
+        }
+        InputStream stream = asset.takeStream();
+        if (stream == null) {
+            // Another request consumed the shared stream; open our own.
+            stream = openResource(asset.servingUri).stream;
+        }
+        if (inline != null && isHtml(asset.mimeType)) {
+            sendInlinedStream(out, mount, inline, asset.mimeType, stream, extraHeaders);
+            return;
+        }
+        sendStream(out, asset.mimeType, asset.length, stream, extraHeaders);
+    }
+
+    private void sendBody(OutputStream out, Mount mount, HtmlInliner.Whitelist inline, String mimeType,
+                          byte[] data, String extraHeaders) throws IOException {
+        if (inline == null || !isHtml(mimeType)) {
+            sendBytes(out, mimeType, data, extraHeaders);
+            return;
+        }
+        String entry = mount.getEntryRelativePath();
+        String key = mount.getEffectiveBase() + "|" + entry + "|" + (mount.prefix.isEmpty() ? "root" : "mount") +
+                "|" + inline.spec + "|" + contentHash(data);
+        InlinedDocument document;
+        synchronized (inlinedDocuments) {
+            document = inlinedDocuments.get(key);
+        }
+        if (document == null) {
+            HtmlInliner inliner = newInliner(mount, inline, entry);
+            ByteArrayOutputStream rewritten = new ByteArrayOutputStream(data.length * 2);
+            inliner.transform(new ByteArrayInputStream(data), rewritten);
+            document = new InlinedDocument(rewritten.toByteArray(), inliner.inlinedCount());
+            synchronized (inlinedDocuments) {
+                inlinedDocuments.put(key, document);
+            }
+            log.d(TAG, "Inlined " + inliner.inlinedScripts + " scripts and " + inliner.inlinedStyles +
+                    " stylesheets into " + entry + " (" + data.length + " -> " + document.data.length + " bytes)");
+        }
+        inlinedResponses.incrementAndGet();
+        inlinedRequestsSaved.addAndGet(document.inlinedCount);
+        sendBytes(out, mimeType, document.data, extraHeaders);
+    }
+
+    /**
+     * Rewrites an entry document too large for the memory cache on the fly. The result is
+     * not cached and, as the final length is unknown, the response is delimited by closing
+     * the connection.
+     */
+    private void sendInlinedStream(OutputStream out, Mount mount, HtmlInliner.Whitelist inline, String mimeType,
+                                   InputStream in, String extraHeaders) throws IOException {
+        HtmlInliner inliner = newInliner(mount, inline, mount.getEntryRelativePath());
+        out.write(responseHeaders(mimeType, -1, extraHeaders).getBytes(StandardCharsets.US_ASCII));
+        traceOnce("firstByteServed");
+        try (InputStream is = in) {
+            inliner.transform(is, out);
+        }
+        out.flush();
+        inlinedResponses.incrementAndGet();
+        inlinedRequestsSaved.addAndGet(inliner.inlinedCount());
+    }
+
+    private HtmlInliner newInliner(Mount mount, HtmlInliner.Whitelist inline, String entry) {
+        String base = mount.getEffectiveBase();
+        return new HtmlInliner(entry, inline, mount.prefix.isEmpty(),
+                (relativePath, maxBytes) -> readBytes(base + encodePath(relativePath), maxBytes));
+    }
+
+    private static boolean isHtml(String mimeType) {
+        return mimeType != null && mimeType.toLowerCase(Locale.US).startsWith("text/html");
+    }
+
+    private static String contentHash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(Arrays.hashCode(data));
+        }
+    }
+
+    private AssetFingerprints fingerprintsFor(Mount mount) {
+        String base = mount.getEffectiveBase();
+        AssetFingerprints fingerprints = fingerprintMaps.get(base);
+        if (fingerprints == null) {
+            byte[] map = readBytes(base + AssetFingerprints.MAP_NAME, MAX_FINGERPRINT_MAP_BYTES);
+            fingerprints = map != null
+                    ? AssetFingerprints.parse(new String(map, StandardCharsets.UTF_8)) : AssetFingerprints.EMPTY;
+            fingerprintMaps.put(base, fingerprints);
+            log.d(TAG, "Loaded " + fingerprints.size() + " asset fingerprints for " + base);
+        }
+        return fingerprints;
+    }
+
+    private void clearInlinedDocuments() {
+        synchronized (inlinedDocuments) {
+            inlinedDocuments.clear();
+        }
+    }
+
+    private static final class InlinedDocument {
+        final byte[] data;
+        final int inlinedCount;
+
+        InlinedDocument(byte[] data, int inlinedCount) {
+            this.data = data;
+            this.inlinedCount = inlinedCount;
+        }
+    }
+
+    /**
+     * Returns the {@code Link} header value announcing the critical subresources of the
+     * mount's entry document, or {@code null} if there are none. Scans are cached per
+     * effective base and entry.
+     */
+    private String preloadLinks(Mount mount) {
+        String base = mount.getEffectiveBase();
+        String entry = mount.getEntryRelativePath();
+        String key = base + "|" + entry;
+        List<PreloadScanner.Hint> hints = preloadScans.get(key);
+        if (hints == null) {
+            hints = scanPreloadHints(mount, base, entry);
+            preloadScans.put(key, hints);
+        }
+        HtmlInliner.Whitelist inline = mount.inlineAssets;
+        StringBuilder links = new StringBuilder();
+        for (PreloadScanner.Hint hint : hints) {
+            // Whatever is inlined into the document needs no separate fetch.
+            if (inline != null && ("script".equals(hint.as) || "style".equals(hint.as)) &&
+                    inline.allows(AssetFingerprints.stripPrefix(hint.rootAbsolute ? hint.path.substring(1) : hint.path))) {
+                continue;
+            }
+            if (links.length() > 0) {
+                links.append(", ");
+            }
+            links.append(hint.toLinkValue(mount.prefix));
+        }
+        return links.length() > 0 ? links.toString() : null;
+    }
+
+    private List<PreloadScanner.Hint> scanPreloadHints(Mount mount, String base, String entry) {
+        List<PreloadScanner.Hint> hints;
+        String manifest = readText(base + PreloadScanner.MANIFEST_NAME);
+        if (manifest != null) {
+            hints = PreloadScanner.parseManifest(manifest);
+        } else {
+            String html = readText(base + entry);
+            if (html == null) {
+                return new ArrayList<>();
+            }
+            hints = PreloadScanner.scan(html, entry, relativePath -> readText(base + encodePath(relativePath)));
+        }
+        // Announcing a file that is not there costs a wasted request, so drop what the
+        // bundled index knows to be missing.
+        if (mount.isServingBundledAssets()) {
+            List<PreloadScanner.Hint> present = new ArrayList<>(hints.size());
+            for (PreloadScanner.Hint hint : hints) {
+                String path = AssetFingerprints.stripPrefix(hint.rootAbsolute ? hint.path.substring(1) : hint.path);
+                int query = path.indexOf('?');
+                if (query >= 0) {
+                    path = path.substring(0, query);
+                }
+                if (assetIndex.lookup(path) != AssetIndex.Lookup.MISSING) {
+                    present.add(hint);
+                }
+            }
+            hints = present;
+        }
+        log.d(TAG, "Preload hints for " + base + entry + ": " + hints.size() +
+                (manifest != null ? " from manifest" : " from scan"));
+        return hints;
+    }
+
+    /**
+     * Reads a small text resource for scanning.
+     *
+     * @return the text, or {@code null} if it is missing or larger than
+     * {@link PreloadScanner#MAX_SCAN_BYTES}
+     */
+    private String readText(String uri) {
+        byte[] data = readBytes(uri, PreloadScanner.MAX_SCAN_BYTES);
+        return data != null ? new String(data, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Reads a small resource whole, bypassing the response caches.
+     *
+     * @return the bytes, or {@code null} if the resource is missing or larger than
+     * {@code maxBytes}
+     */
+    private byte[] readBytes(String uri, int maxBytes) {
+        ResourceProvider.Resource resource;
+        try {
+            resource = resources.open(uri);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            log.w(TAG, "Failed reading " + uri, e);
+            return null;
+        }
+        try (InputStream is = resource.stream) {
+            if (resource.length > maxBytes) {
+                return null;
+            }
+            byte[] data = readFully(is, resource.length >= 0 ? (int) resource.length : maxBytes + 1);
+            return data.length > maxBytes ? null : data;
+        } catch (IOException e) {
+            log.w(TAG, "Failed reading " + uri, e);
+            return null;
+        }
+    }
+
+    private static String encodePath(String relativePath) {
+        String[] segments = relativePath.split("/", -1);
+        StringBuilder encoded = new StringBuilder(relativePath.length());
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                encoded.append('/');
+            }
+            encoded.append(UriCodec.encode(segments[i]));
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Answers a miss without touching the resource API when the target failed before, or
+     * when the bundled asset index says it does not exist. Entry-document paths are never
+     * short-circuited because they fall back to the default entry.
+     */
+    private boolean isKnownMissing(Mount mount, String target, String relative) {
+        if (relative == null) {
+            return false;
+        }
+        synchronized (missingTargets) {
+            if (missingTargets.containsKey(mount.id + ":" + target)) {
+                return true;
+            }
+        }
+        if (!mount.isServingBundledAssets() || isEmpty(relative) ||
+                "index.html".equals(UriCodec.lastPathSegment(target))) {
+            return false;
+        }
+        return assetIndex.lookup(relative) == AssetIndex.Lookup.MISSING;
+    }
+
+    private void rememberMissing(Mount mount, String target) {
+        synchronized (missingTargets) {
+            missingTargets.put(mount.id + ":" + target, Boolean.TRUE);
+        }
+    }
+
+    private void clearMissingTargets() {
+        synchronized (missingTargets) {
+            missingTargets.clear();
+        }
+    }
+
+    /**
+     * Result of one asset load. Small bodies are held in {@code data} and shared by every
+     * waiting request; larger ones carry an open stream that only one request can take.
+     */
+    private static final class LoadedAsset {
+        final String servingUri;
+        final String mimeType;
+        final long length;
+        final byte[] data;
+        private InputStream stream;
+
+        LoadedAsset(String servingUri, String mimeType, long length, byte[] data, InputStream stream) {
+            this.servingUri = servingUri;
+            this.mimeType = mimeType;
+            this.length = length;
+            this.data = data;
+            this.stream = stream;
+        }
+
+        synchronized InputStream takeStream() {
+            InputStream taken = stream;
+            stream = null;
+            return taken;
+        }
+    }
+
+    /**
+     * Opens {@code target} (with the bundled and default-document fallbacks) and fills the
+     * memory and disk caches.
+     *
+     * @throws FileNotFoundException if neither the target nor a fallback exists
+     */
+    private LoadedAsset loadAsset(Mount mount, String rawPath, String target) throws IOException {
+        ResourceProvider.Resource result;
+        String servingUri = target;
+        try {
+            result = openResource(target);
+        } catch (FileNotFoundException e) {
+            result = null;
+            String bundledFallback = mount.resolveBundledFallback(rawPath, target);
+            if (bundledFallback != null) {
+                try {
+                    result = openResource(bundledFallback);
+                    servingUri = bundledFallback;
+                    log.d(TAG, "Served bundled fallback " + bundledFallback + " for " + rawPath);
+                } catch (IOException ignoredFallbackErr) {
+                    // continue with existing index fallback handling below
+                }
+            }
+            if (result != null) {
+                // bundled fallback succeeded
+            } else {
+                String lastSegment = UriCodec.lastPathSegment(target);
+                if (!isEmpty(mount.defaultRelativePath) && (isEmpty(lastSegment) || "index.html".equals(lastSegment))) {
+                    String fallback = appBase + mount.defaultRelativePath;
+                    servingUri = fallback;
+                    result = openResource(fallback);
+                } else {
+                    throw e;
+                }
+            }
+        }
+
+        if (result == null) {
+            throw new FileNotFoundException("No open result for " + rawPath);
+        }
+
+        String mimeType = isEmpty(result.mimeType) ? "application/octet-stream" : result.mimeType;
+        String cacheKey = target;
+
+        // Only APK assets served under their own URI are cached: they are immutable for an
+        // install, so they can outlive this process. Override files can change in place, and
+        // a fallback body would be keyed by the target it stands in for.
+        boolean cacheable = servingUri.equals(target) && servingUri.startsWith(ANDROID_ASSET_PREFIX);
+        boolean persist = diskCache != null && cacheable;
+        long length = result.length;
+        if (length >= 0 && length <= assetCache.getMaxEntryBytes()) {
+            byte[] data;
+            try (InputStream is = result.stream) {
+                data = readFully(is, (int) length);
+            }
+            if (cacheable) {
+                assetCache.put(cacheKey, data, mimeType);
+            }
+            if (persist) {
+                diskCache.put(cacheKey, data, mimeType);
+            }
+            return new LoadedAsset(servingUri, mimeType, length, data, null);
+        }
+
+        if (persist) {
+            String source = servingUri;
+            diskCache.putFrom(cacheKey, () -> resources.open(source).stream, mimeType);
+        }
+        return new LoadedAsset(servingUri, mimeType, length, null, result.stream);
+    }
+
+    private ResourceProvider.Resource openResource(String uri) throws IOException {
+        TrafficShaper shaper = this.shaper;
+        if (shaper != null) {
+            shaper.throttleOpen();
+        }
+        return resources.open(uri);
+    }
+
+    /**
+     * Serves a body from the on-disk cache. Small bodies are promoted to the memory cache.
+     *
+     * @return false if the cached file has disappeared, so the caller loads the asset again
+     */
+    private boolean sendStored(OutputStream out, String cacheKey, DiskAssetCache.Entry stored,
+                               String extraHeaders) throws IOException {
+        TrafficShaper shaper = this.shaper;
+        if (shaper != null) {
+            shaper.throttleOpen();
+        }
+        InputStream in;
+        try {
+            in = new FileInputStream(stored.file);
+        } catch (FileNotFoundException e) {
+            diskCache.remove(cacheKey);
+            return false;
+        }
+        if (stored.length <= assetCache.getMaxEntryBytes()) {
+            byte[] data;
+            try (InputStream is = in) {
+                data = readFully(is, (int) stored.length);
+            }
+            assetCache.put(cacheKey, data, stored.mimeType);
+            sendBytes(out, stored.mimeType, data, extraHeaders);
+            return true;
+        }
+        sendStream(out, stored.mimeType, stored.length, in, extraHeaders);
+        return true;
+    }
+
+    /**
+     * @param extraHeaders header lines to add, each terminated by CRLF, or {@code null}
+     */
+    private void sendStream(OutputStream out, String mimeType, long length, InputStream in,
+                            String extraHeaders) throws IOException {
+        out.write(responseHeaders(mimeType, length, extraHeaders).getBytes(StandardCharsets.US_ASCII));
+        traceOnce("firstByteServed");
+
+        try (InputStream is = in) {
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Header block of a 200 response; a negative {@code length} leaves out Content-Length.
+     */
+    private static String responseHeaders(String mimeType, long length, String extraHeaders) {
+        StringBuilder headers = new StringBuilder();
+        headers.append("HTTP/1.1 200 OK\r\n");
+        headers.append("Content-Type: ").append(mimeType).append("\r\n");
+        if (length >= 0) {
+            headers.append("Content-Length: ").append(length).append("\r\n");
+        }
+        if (extraHeaders != null) {
+            headers.append(extraHeaders);
+        }
+        headers.append("Access-Control-Allow-Origin: *\r\n");
+        headers.append("Connection: close\r\n\r\n");
+        return headers.toString();
+    }
+
+    private String statsJson() {
+        return "{\"memoryCacheBytes\":" + assetCache.sizeBytes() +
+                ",\"memoryCacheEntries\":" + assetCache.count() +
+                ",\"diskCacheBytes\":" + (diskCache != null ? diskCache.sizeBytes() : 0) +
+                ",\"diskCacheEntries\":" + (diskCache != null ? diskCache.count() : 0) +
+                ",\"coalescedLoads\":" + inflightLoads.getCoalescedCount() +
+                ",\"preloadScans\":" + preloadScans.size() +
+                ",\"inlinedResponses\":" + inlinedResponses.get() +
+                ",\"inlinedRequestsSaved\":" + inlinedRequestsSaved.get() +
+                ",\"batchResponses\":" + batchResponses.get() +
+                ",\"batchedParts\":" + batchedParts.get() + "}";
+    }
+
+    private void handleEnginePath(OutputStream out, Mount mount, String rawPath) throws IOException {
+        String path = rawPath.substring(ENGINE_PREFIX.length());
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        if ("routes".equals(path)) {
+            sendJson(out, router.toJson());
+            return;
+        }
+        if ("server".equals(path)) {
+            sendJson(out, statsJson());
+            return;
+        }
+        if (shapingControl && ("shaping".equals(path) || path.startsWith("shaping/"))) {
+            handleShapingPath(out, path, rawPath);
+            return;
+        }
+        if ("batch".equals(path)) {
+            serveBatch(out, mount, rawPath);
+            return;
+        }
+        if ("prefetch".equals(path) || path.startsWith("prefetch/")) {
+            handlePrefetchPath(out, mount, path, rawPath);
+            return;
+        }
+        if ("cache".equals(path)) {
+            sendJson(out, cacheResidencyJson(mount, pathParameters(rawPath)));
+            return;
+        }
+        EndpointHandler handler = mount.endpointHandler;
+        if (handler != null) {
+            String body = handler.handleEndpoint(path, baseUrl + rawPath);
+            if (body != null) {
+                // Engine state is for the app's own pages only.
+                sendJson(out, body, false);
+                return;
+            }
+        }
+        sendStatus(out, "404 Not Found", "Not Found");
+    }
+
+    /**
+     * {@code shaping} reports the active configuration, {@code shaping/set?<spec>}
+     * replaces it and {@code shaping/off} disables it.
+     */
+    private void handleShapingPath(OutputStream out, String path, String rawPath) throws IOException {
+        if ("shaping/set".equals(path)) {
+            int query = rawPath.indexOf('?');
+            try {
+                setShaping(TrafficShaper.parse(query >= 0 ? rawPath.substring(query + 1) : ""));
+            } catch (IllegalArgumentException e) {
+                sendStatus(out, "400 Bad Request", e.getMessage());
+                return;
+            }
+        } else if ("shaping/off".equals(path)) {
+            setShaping(null);
+        } else if (!"shaping".equals(path)) {
+            sendStatus(out, "404 Not Found", "Not Found");
+            return;
+        }
+        TrafficShaper current = shaper;
+        sendJson(out, current != null ? current.toJson() : "{\"enabled\":false}");
+    }
+
+    /**
+     * {@code batch?p=<path>&p=<path>...} answers several assets in one response. Each
+     * {@code p} is a request path as it would be fetched on its own (percent-encoded,
+     * mount prefix omitted). Parts are loaded concurrently and written in request order as
+     * {@value #BATCH_MIME_TYPE}: per part, an ASCII line
+     * {@code <status> <length> <path> <content type>\n} followed by {@code length} bytes
+     * of body. Failed parts carry their status and no body; parts over
+     * {@link #MAX_BATCH_PART_BYTES} are answered 413 so the client fetches them alone.
+     */
+    private void serveBatch(OutputStream out, Mount mount, String rawPath) throws IOException {
+        List<String> paths = pathParameters(rawPath);
+        if (paths.isEmpty() || paths.size() > MAX_BATCH_PARTS) {
+            sendStatus(out, "400 Bad Request", "Expected 1 to " + MAX_BATCH_PARTS + " p= parameters");
+            return;
+        }
+        out = shape(out, rawPath);
+        if (out == null) {
+            return;
+        }
+        activeAssetRequests.incrementAndGet();
+        try {
+            writeBatch(out, mount, paths);
+        } finally {
+            activeAssetRequests.decrementAndGet();
+        }
+    }
+
+    private void writeBatch(OutputStream out, Mount mount, List<String> paths) throws IOException {
+        List<Future<BatchPart>> parts = new ArrayList<>(paths.size());
+        ExecutorService executor = this.executor;
+        for (String path : paths) {
+            try {
+                parts.add(executor.submit(() -> loadBatchPart(mount, path)));
+            } catch (RejectedExecutionException e) {
+                // Stopping; finish the remaining parts on this thread.
+                parts.add(null);
+            }
+        }
+        out.write(responseHeaders(BATCH_MIME_TYPE, -1, "Cache-Control: no-store\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        traceOnce("firstByteServed");
+        for (int i = 0; i < paths.size(); i++) {
+            BatchPart part = awaitBatchPart(parts.get(i), mount, paths.get(i));
+            int length = part.data != null ? part.data.length : 0;
+            // The path is informational; keep it to one space-free token.
+            String path = paths.get(i).replace(" ", "%20").replace("\n", "%0A").replace("\r", "%0D");
+            out.write((part.status + " " + length + " " + path + " " + part.mimeType + "\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            if (part.data != null) {
+                out.write(part.data);
+            }
+        }
+        out.flush();
+        batchResponses.incrementAndGet();
+        batchedParts.addAndGet(paths.size());
+    }
+
+    /**
+     * The {@code p} parameters of an engine path, as mount-relative request paths.
+     */
+    private static List<String> pathParameters(String rawPath) {
+        List<String> paths = new ArrayList<>();
+        int query = rawPath.indexOf('?');
+        if (query >= 0) {
+            for (String parameter : rawPath.substring(query + 1).split("&")) {
+                if (parameter.startsWith("p=") && parameter.length() > 2) {
+                    String path = UriCodec.decode(parameter.substring(2), true);
+                    paths.add(path.startsWith("/") ? path : "/" + path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private BatchPart awaitBatchPart(Future<BatchPart> part, Mount mount, String rawPath) {
+        if (part == null) {
+            return loadBatchPart(mount, rawPath);
+        }
+        try {
+            return part.get(INFLIGHT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            part.cancel(true);
+            log.e(TAG, "Timed out loading batch part " + rawPath, null);
+            return new BatchPart(504, null, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BatchPart(503, null, null);
+        } catch (ExecutionException e) {
+            log.e(TAG, "Failed loading batch part " + rawPath, e.getCause());
+            return new BatchPart(500, null, null);
+        }
+    }
+
+    /**
+     * Loads one batch part through the same caches and shared loads as a single request,
+     * without the SPA fallback: a missing chunk is a 404, not the entry document.
+     */
+    private BatchPart loadBatchPart(Mount mount, String rawPath) {
+        String[] fingerprinted = AssetFingerprints.split(rawPath);
+        if (fingerprinted != null) {
+            rawPath = fingerprinted[1];
+        }
+        String target = mount.resolveTarget(rawPath);
+        String relative = target != null ? mount.appRelativePath(target) : null;
+        if (target == null || isKnownMissing(mount, target, relative)) {
+            return new BatchPart(404, null, null);
+        }
+        AssetCache.Entry cached = assetCache.get(target);
+        if (cached != null) {
+            return new BatchPart(200, cached.mimeType, cached.data);
+        }
+        String loadPath = rawPath;
+        try {
+            DiskAssetCache.Entry stored = diskCache != null ? diskCache.get(target) : null;
+            if (stored != null && stored.length > MAX_BATCH_PART_BYTES) {
+                return new BatchPart(413, stored.mimeType, null);
+            }
+            if (stored != null) {
+                try (InputStream is = new FileInputStream(stored.file)) {
+                    return new BatchPart(200, stored.mimeType, readFully(is, (int) stored.length));
+                } catch (FileNotFoundException e) {
+                    diskCache.remove(target);
+                }
+            }
+            LoadedAsset asset = inflightLoads.execute(target, INFLIGHT_TIMEOUT_MS,
+                    () -> loadAsset(mount, loadPath, target));
+            if (asset.data != null) {
+                return new BatchPart(200, asset.mimeType, asset.data);
+            }
+            if (asset.length > MAX_BATCH_PART_BYTES) {
+                InputStream unused = asset.takeStream();
+                if (unused != null) {
+                    unused.close();
+                }
+                return new BatchPart(413, asset.mimeType, null);
+            }
+            InputStream stream = asset.takeStream();
+            try (InputStream is = stream != null ? stream : openResource(asset.servingUri).stream) {
+                byte[] data = readFully(is, asset.length >= 0 ? (int) asset.length : MAX_BATCH_PART_BYTES + 1);
+                return data.length > MAX_BATCH_PART_BYTES
+                        ? new BatchPart(413, asset.mimeType, null) : new BatchPart(200, asset.mimeType, data);
+            }
+        } catch (FileNotFoundException e) {
+            if (relative != null) {
+                rememberMissing(mount, target);
+            }
+            return new BatchPart(404, null, null);
+        } catch (SingleFlight.TimeoutException e) {
+            log.e(TAG, "Timed out waiting for shared load of " + target, null);
+            return new BatchPart(504, null, null);
+        } catch (IOException e) {
+            log.e(TAG, "Failed loading batch part " + target, e);
+            return new BatchPart(500, null, null);
+        }
+    }
+
+    private static final class BatchPart {
+        final int status;
+        final String mimeType;
+        final byte[] data;
+
+        BatchPart(int status, String mimeType, byte[] data) {
+            this.status = status;
+            this.mimeType = isEmpty(mimeType) ? "application/octet-stream" : mimeType;
+            this.data = data;
+        }
+    }
+
+    /**
+     * {@code prefetch?p=<path>&p=<path>...} or {@code prefetch?route=<name>} queues a
+     * warming job and answers its status; {@code priority=high} puts it ahead of
+     * low-priority jobs. {@code prefetch/status?id=}, {@code prefetch/wait?id=} (blocks
+     * until the job finishes, up to {@link #MAX_PREFETCH_WAIT_MS}) and
+     * {@code prefetch/cancel[?id=]} follow a job; without an id, cancel stops them all.
+     */
+    private void handlePrefetchPath(OutputStream out, Mount mount, String path, String rawPath) throws IOException {
+        if ("prefetch/cancel".equals(path) && UriCodec.queryParameter(rawPath, "id") == null) {
+            sendJson(out, "{\"cancelled\":" + prefetchQueue.cancelAll() + "}");
+            return;
+        }
+        if ("prefetch".equals(path)) {
+            String route = UriCodec.queryParameter(rawPath, "route");
+            List<String> paths = route != null ? routeAssets(mount, route) : pathParameters(rawPath);
+            if (paths.isEmpty()) {
+                sendStatus(out, route != null ? "404 Not Found" : "400 Bad Request",
+                        route != null ? "Unknown route " + route : "Expected p= parameters or route=");
+                return;
+            }
+            PrefetchQueue.Job job = prefetchQueue.submit(paths,
+                    PrefetchQueue.Priority.parse(UriCodec.queryParameter(rawPath, "priority")),
+                    assetPath -> warmAsset(mount, assetPath));
+            log.d(TAG, "Queued prefetch " + job.id + " of " + paths.size() + " assets");
+            sendJson(out, prefetchQueue.toJson(job));
+            return;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(String.valueOf(UriCodec.queryParameter(rawPath, "id")));
+        } catch (NumberFormatException e) {
+            sendStatus(out, "400 Bad Request", "Expected id=");
+            return;
+        }
+        PrefetchQueue.Job job;
+        if ("prefetch/status".equals(path)) {
+            job = prefetchQueue.get(id);
+        } else if ("prefetch/wait".equals(path)) {
+            try {
+                job = prefetchQueue.await(id, MAX_PREFETCH_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } else if ("prefetch/cancel".equals(path)) {
+            prefetchQueue.cancel(id);
+            job = prefetchQueue.get(id);
+        } else {
+            sendStatus(out, "404 Not Found", "Not Found");
+            return;
+        }
+        if (job == null) {
+            sendStatus(out, "404 Not Found", "Unknown prefetch " + id);
+            return;
+        }
+        sendJson(out, prefetchQueue.toJson(job));
+    }
+
+    /**
+     * The assets of an app route: its {@link PrefetchQueue#ROUTE_MANIFEST_NAME} entries or,
+     * for a route that names an HTML document, the document and its critical subresources.
+     */
+    private List<String> routeAssets(Mount mount, String route) {
+        String base = mount.getEffectiveBase();
+        List<String> paths = new ArrayList<>();
+        String manifest = readText(base + PrefetchQueue.ROUTE_MANIFEST_NAME);
+        if (manifest != null) {
+            for (String relativePath : PrefetchQueue.parseRoute(manifest, route)) {
+                paths.add("/" + encodePath(relativePath));
+            }
+            if (!paths.isEmpty()) {
+                return paths;
+            }
+        }
+        String document = route.startsWith("/") ? route.substring(1) : route;
+        String lower = document.toLowerCase(Locale.US);
+        if (!lower.endsWith(".html") && !lower.endsWith(".htm")) {
+            return paths;
+        }
+        String html = readText(base + encodePath(document));
+        if (html == null) {
+            return paths;
+        }
+        paths.add("/" + encodePath(document));
+        for (PreloadScanner.Hint hint : PreloadScanner.scan(html, document,
+                relativePath -> readText(base + encodePath(relativePath)))) {
+            paths.add(hint.requestPath());
+        }
+        return paths;
+    }
+
+    /**
+     * Loads one asset into the caches without serving it.
+     *
+     * @return true if it is now in the memory or disk cache
+     */
+    private boolean warmAsset(Mount mount, String rawPath) {
+        String[] fingerprinted = AssetFingerprints.split(rawPath);
+        String loadPath = fingerprinted != null ? fingerprinted[1] : rawPath;
+        String target = mount.resolveTarget(loadPath);
+        String relative = target != null ? mount.appRelativePath(target) : null;
+        if (target == null || isKnownMissing(mount, target, relative)) {
+            return false;
+        }
+        if (assetCache.contains(target)) {
+            return true;
+        }
+        try {
+            LoadedAsset asset = inflightLoads.execute(target, INFLIGHT_TIMEOUT_MS,
+                    () -> loadAsset(mount, loadPath, target));
+            InputStream unused = asset.takeStream();
+            if (unused != null) {
+                unused.close();
+            }
+            return assetCache.contains(target) || (diskCache != null && diskCache.get(target) != null);
+        } catch (FileNotFoundException e) {
+            if (relative != null) {
+                rememberMissing(mount, target);
+            }
+            return false;
+        } catch (IOException e) {
+            log.w(TAG, "Failed prefetching " + target, e);
+            return false;
+        }
+    }
+
+    /**
+     * {@code cache?p=<path>...}: where each asset would be served from right now,
+     * {@code "memory"}, {@code "disk"} or {@code "none"}, keyed by the given path.
+     */
+    private String cacheResidencyJson(Mount mount, List<String> paths) {
+        StringBuilder json = new StringBuilder("{");
+        for (String rawPath : paths) {
+            String[] fingerprinted = AssetFingerprints.split(rawPath);
+            String target = mount.resolveTarget(fingerprinted != null ? fingerprinted[1] : rawPath);
+            String residency = "none";
+            if (target != null && assetCache.contains(target)) {
+                residency = "memory";
+            } else if (target != null && diskCache != null && diskCache.get(target) != null) {
+                residency = "disk";
+            }
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(jsonEscape(rawPath)).append("\":\"").append(residency).append('"');
+        }
+        return json.append('}').toString();
+    }
+
+    private void sendBytes(OutputStream out, String mimeType, byte[] data, String extraHeaders) throws IOException {
+        String header = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: " + mimeType + "\r\n" +
+                "Content-Length: " + data.length + "\r\n" +
+                (extraHeaders != null ? extraHeaders : "") +
+                "Access-Control-Allow-Origin: *\r\n" +
+                "Connection: close\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+        traceOnce("firstByteServed");
+        out.write(data);
+        out.flush();
+    }
+
+    private byte[] readFully(InputStream is, int expectedLength) throws IOException {
+        byte[] data = new byte[expectedLength];
+        int offset = 0;
+        while (offset < expectedLength) {
+            int read = is.read(data, offset, expectedLength - offset);
+            if (read == -1) {
+                break;
+            }
+            offset += read;
+        }
+        if (offset < expectedLength) {
+            byte[] truncated = new byte[offset];
+            System.arraycopy(data, 0, truncated, 0, offset);
+            return truncated;
+        }
+        return data;
+    }
+
+    private void sendJson(OutputStream out, String body) throws IOException {
+        sendJson(out, body, true);
+    }
+
+    /**
+     * @param anyOrigin whether other origins may read the response
+     */
+    private void sendJson(OutputStream out, String body, boolean anyOrigin) throws IOException {
+        if (body == null) {
+            body = "{}";
+        }
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + data.length + "\r\n" +
+                (anyOrigin ? "Access-Control-Allow-Origin: *\r\n" : "") +
+                "Connection: close\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+        out.write(data);
+        out.flush();
+    }
+
+    static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private String jsonEscape(String text) {
+        String value = text == null ? "" : text;
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void sendStatus(OutputStream out, String status, String message) throws IOException {
+        String body = message == null ? "" : message;
+        String header = "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "Connection: close\r\n\r\n";
+        log.d(TAG, "Responding " + status + " for " + message);
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private void indexAppDirectory() {
+        Set<String> collected = new HashSet<>();
+        try {
+            String[] children = resources.list(appBase);
+            if (children == null) {
+                log.d(TAG, "Asset listing unavailable for base path " + appBase);
+                return;
+            }
+            log.d(TAG, "Listing Cordova assets under " + appBase);
+            collectDirectory("", children, collected);
+        } catch (IOException e) {
+            log.e(TAG, "Failed to enumerate assets for " + appBase, e);
+            return;
+        }
+        assetIndex.publish(collected);
+    }
+
+    private void collectDirectory(String relativePath, String[] children, Set<String> collected) throws IOException {
+        for (String child : children) {
+            String childRelative = relativePath + child;
+            if (child.endsWith("/")) {
+                log.d(TAG, "Dir: " + childRelative);
+                collected.add(childRelative);
+                String[] nested = resources.list(appBase + childRelative);
+                if (nested != null) {
+                    collectDirectory(childRelative, nested, collected);
+                }
+            } else {
+                log.d(TAG, "File: " + childRelative);
+                collected.add(childRelative);
+            }
+        }
+    }
+
+    /**
+     * Per-engine view of the server: URL rewriting, default entry document and the
+     * self-update override base. The root mount keeps the original, unsuffixed
+     * preference keys so existing overrides survive upgrades.
+     */
+    final class Mount {
+        final int id;
+        final String prefix;
+        private final String prefSuffix;
+        volatile String defaultRelativePath = "index.html";
+        volatile RequestObserver requestObserver;
+        volatile EndpointHandler endpointHandler;
+        volatile CookieObserver cookieObserver;
+        // Serve the entry document for extensionless app paths that are not files.
+        volatile boolean spaFallback;
+        // Announce the entry document's critical subresources in Link headers, and
+        // additionally in a 103 Early Hints response ahead of the document.
+        volatile boolean preloadHints;
+        volatile boolean earlyHints;
+        // Assets that may be inlined into the entry document; null disables inlining.
+        volatile HtmlInliner.Whitelist inlineAssets;
+
+        private Mount(int id) {
+            this.id = id;
+            this.prefix = id == 0 ? "" : MOUNT_PREFIX + id;
+            this.prefSuffix = id == 0 ? "" : "_m" + id;
+        }
+
+        String getBaseUrl() {
+            return baseUrl != null ? baseUrl + prefix : null;
+        }
+
+        /**
+         * Whether the bundled asset index describes what this mount serves, i.e. no
+         * self-update override is active.
+         */
+        boolean isServingBundledAssets() {
+            return isEmpty(getOverrideBase());
+        }
+
+        String stripPrefix(String rawPath) {
+            if (prefix.isEmpty() || rawPath == null || !rawPath.startsWith(prefix)) {
+                return rawPath;
+            }
+            String rest = rawPath.substring(prefix.length());
+            return rest.startsWith("/") ? rest : "/" + rest;
+        }
+
+        String rewriteUri(String url) {
+            if (isEmpty(url) || baseUrl == null) {
+                return url;
+            }
+            UrlRouter.Match match = router.match(url);
+            if (match == null) {
+                return url;
+            }
+            switch (match.route.action) {
+                case LOOPBACK:
+                case ENTRY: {
+                    String rest = url.substring(match.pathStart);
+                    if (rest.isEmpty() || rest.charAt(0) != '/') {
+                        rest = "/index.html" + rest;
+                    } else if (rest.length() == 1 || rest.charAt(1) == '?' || rest.charAt(1) == '#') {
+                        rest = "/index.html" + rest.substring(1);
+                    }
+                    return getBaseUrl() + rest;
+                }
+                case SERVE:
+                    return toServerUrl(match, url);
+                default:
+                    return url;
+            }
+        }
+
+        String rewriteFileUri(String fileUri) {
+            if (isEmpty(fileUri) || baseUrl == null) {
+                return fileUri;
+            }
+            UrlRouter.Match match = router.match(fileUri);
+            if (match != null && match.route.action == UrlRouter.Action.SERVE && match.route.appRoot) {
+                return toServerUrl(match, fileUri);
+            }
+            String effectiveBase = getEffectiveBase();
+            if (!isEmpty(effectiveBase) && fileUri.startsWith(effectiveBase)) {
+                String rel = fileUri.substring(effectiveBase.length());
+                return joinUrl(rel);
+            }
+            return fileUri;
+        }
+
+        private String toServerUrl(UrlRouter.Match match, String url) {
+            UrlRouter.Route route = match.route;
+            if (route.encoded) {
+                return getBaseUrl() + route.serverPrefix + UriCodec.encode(url);
+            }
+            String rest = url.substring(match.end);
+            if (route.serverPrefix.endsWith("/") && rest.startsWith("/")) {
+                rest = rest.substring(1);
+            }
+            return getBaseUrl() + route.serverPrefix + rest;
+        }
+
+        void setDefaultAsset(String assetUri) {
+            if (isEmpty(assetUri)) {
+                return;
+            }
+            if (assetUri.startsWith(appBase)) {
+                String rel = assetUri.substring(appBase.length());
+                if (isEmpty(rel)) {
+                    rel = "index.html";
+                }
+                if (!rel.equals(defaultRelativePath)) {
+                    defaultRelativePath = rel;
+                    clearMissingTargets();
+                }
+            }
+        }
+
+        /**
+         * Returns the decoded path of {@code target} relative to the effective base, or
+         * {@code null} if the target lies outside the app root.
+         */
+        String appRelativePath(String target) {
+            String base = getEffectiveBase();
+            if (isEmpty(base) || !target.startsWith(base)) {
+                return null;
+            }
+            return UriCodec.decode(target.substring(base.length()));
+        }
+
+        /**
+         * The entry document served for "/": the override entry while one is active,
+         * otherwise the default.
+         */
+        String getEntryRelativePath() {
+            String overrideEntry = getOverrideEntry();
+            return isEmpty(overrideEntry) ? defaultRelativePath : overrideEntry;
+        }
+
+        boolean isEntryDocument(String target) {
+            String relative = appRelativePath(target);
+            return relative != null && relative.equals(getEntryRelativePath());
+        }
+
+        /**
+         * True if SPA fallback is on and {@code relative} is an extensionless path the
+         * bundled index does not list as a file.
+         */
+        boolean appliesSpaFallback(String relative) {
+            if (!spaFallback || isEmpty(relative) || relative.endsWith("/")) {
+                return false;
+            }
+            String name = relative.substring(relative.lastIndexOf('/') + 1);
+            if (name.indexOf('.') >= 0) {
+                return false;
+            }
+            return !isServingBundledAssets() || !assetIndex.containsFile(relative);
+        }
+
+        private String joinUrl(String relative) {
+            if (relative.startsWith("/")) {
+                relative = relative.substring(1);
+            }
+            return getBaseUrl() + "/" + relative;
+        }
+
+        private String resolveBundledFallback(String rawPath, String target) {
+            if (isEmpty(rawPath) || target == null) {
+                return null;
+            }
+            String effectiveBase = getEffectiveBase();
+            if (isEmpty(effectiveBase) || Objects.equals(normalizeBase(effectiveBase), normalizeBase(appBase))) {
+                return null;
+            }
+
+            String path = rawPath;
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+            UrlRouter.Match match = router.matchServerPath(path);
+            if (match != null && !match.route.appRoot) {
+                return null;
+            }
+            String relative = match != null ? path.substring(match.end) : path;
+            if (isEmpty(relative) || "/".equals(relative)) {
+                relative = defaultRelativePath;
+            } else if (relative.startsWith("/")) {
+                relative = relative.substring(1);
+            }
+            if (isEmpty(relative)) {
+                return null;
+            }
+            return appBase + relative;
+        }
+
+        String resolveTarget(String path) {
+            if (isEmpty(path)) {
+                path = "/";
+            }
+            int query = path.indexOf('?');
+            if (query >= 0) {
+                path = path.substring(0, query);
+            }
+            UrlRouter.Match match = router.matchServerPath(path);
+            if (match != null && match.route.encoded) {
+                String encoded = path.substring(match.end);
+                String decoded = UriCodec.decode(encoded);
+                log.d(TAG, "Decoding " + path + " -> " + decoded);
+                return decoded;
+            }
+            if (match != null && !match.route.appRoot) {
+                return match.route.match + path.substring(match.end);
+            }
+            String relative = match != null ? path.substring(match.end) : path;
+            if (isEmpty(relative) || "/".equals(relative)) {
+                relative = getEntryRelativePath();
+            } else if (relative.startsWith("/")) {
+                relative = relative.substring(1);
+            }
+            String effectiveBase = getEffectiveBase();
+            if (isEmpty(effectiveBase)) {
+                effectiveBase = appBase;
+            }
+            if (!effectiveBase.endsWith("/")) {
+                effectiveBase += "/";
+            }
+            return effectiveBase + relative;
+        }
+
+        private boolean handleControlPath(OutputStream out, String rawPath) throws IOException {
+            String path = UriCodec.path(rawPath);
+            if (isEmpty(path)) {
+                sendStatus(out, "404 Not Found", "Not Found");
+                return true;
+            }
+            if (path.endsWith("/activate")) {
+                String base = UriCodec.queryParameter(rawPath, "base");
+                String entry = UriCodec.queryParameter(rawPath, "entry");
+                if (isEmpty(base)) {
+                    sendStatus(out, "400 Bad Request", "Missing base");
+                    return true;
+                }
+                String normalizedBase = normalizeBase(base);
+                if (isEmpty(normalizedBase) || !normalizedBase.startsWith("file://")) {
+                    sendStatus(out, "400 Bad Request", "Invalid base");
+                    return true;
+                }
+                String normalizedEntry = normalizeEntry(entry);
+                saveOverride(normalizedBase, normalizedEntry);
+                sendJson(out, "{\"ok\":true,\"mode\":\"updated\"}");
+                return true;
+            }
+            if (path.endsWith("/deactivate")) {
+                clearOverride();
+                sendJson(out, "{\"ok\":true,\"mode\":\"bundled\"}");
+                return true;
+            }
+            if (path.endsWith("/status")) {
+                String base = getOverrideBase();
+                String entry = getOverrideEntry();
+                boolean active = !isEmpty(base);
+                String body = "{\"ok\":true,\"active\":" + (active ? "true" : "false") +
+                        ",\"base\":\"" + jsonEscape(active ? base : appBase) + "\"" +
+                        ",\"entry\":\"" + jsonEscape(isEmpty(entry) ? defaultRelativePath : entry) + "\"}";
+                sendJson(out, body);
+                return true;
+            }
+            sendStatus(out, "404 Not Found", "Not Found");
+            return true;
+        }
+
+        private String normalizeBase(String base) {
+            String value = base == null ? "" : base.trim();
+            if (isEmpty(value)) {
+                return "";
+            }
+            return value.endsWith("/") ? value : value + "/";
+        }
+
+        private String normalizeEntry(String entry) {
+            String value = entry == null ? "" : entry.trim();
+            if (isEmpty(value)) {
+                return defaultRelativePath;
+            }
+            while (value.startsWith("/")) {
+                value = value.substring(1);
+            }
+            return isEmpty(value) ? defaultRelativePath : value;
+        }
+
+        private synchronized void saveOverride(String base, String entry) {
+            if (preferences == null) {
+                return;
+            }
+            preferences.putString(PREF_OVERRIDE_BASE + prefSuffix, base);
+            preferences.putString(PREF_OVERRIDE_ENTRY + prefSuffix, entry);
+            clearAssetCaches();
+            clearMissingTargets();
+            preloadScans.clear();
+            fingerprintMaps.clear();
+            clearInlinedDocuments();
+            log.d(TAG, "Updated local server override base=" + base + " entry=" + entry);
+        }
+
+        private synchronized void clearOverride() {
+            if (preferences == null) {
+                return;
+            }
+            preferences.remove(PREF_OVERRIDE_BASE + prefSuffix);
+            preferences.remove(PREF_OVERRIDE_ENTRY + prefSuffix);
+            clearAssetCaches();
+            clearMissingTargets();
+            preloadScans.clear();
+            fingerprintMaps.clear();
+            clearInlinedDocuments();
+            log.d(TAG, "Cleared local server override; serving bundled assets.");
+        }
+
+        private synchronized String getOverrideBase() {
+            if (preferences == null) {
+                return "";
+            }
+            return preferences.getString(PREF_OVERRIDE_BASE + prefSuffix, "");
+        }
+
+        private synchronized String getOverrideEntry() {
+            if (preferences == null) {
+                return "";
+            }
+            return preferences.getString(PREF_OVERRIDE_ENTRY + prefSuffix, "");
+        }
+
+        private String getEffectiveBase() {
+            String override = getOverrideBase();
+            if (!isEmpty(override)) {
+                return normalizeBase(override);
+            }
+            return appBase;
+        }
+    }
+
+    /**
+     * Counts response bytes and picks the status code out of the status line. An interim
+     * 1xx response (Early Hints) is skipped so the final status is the one recorded.
+     */
+    private static final class ResponseRecorder extends FilterOutputStream {
+        private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+        int status;
+        long bytes;
+        private int statusDigits;
+        // Offset of the status line being observed, and progress through the CRLFCRLF
+        // that ends an interim response's headers.
+        private long responseStart;
+        private boolean interim;
+        private int terminatorMatched;
+
+        ResponseRecorder(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (interim || bytes < responseStart + 12) {
+                observe((byte) b, bytes);
+            }
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            for (int i = 0; i < len && (interim || bytes + i < responseStart + 12); i++) {
+                observe(b[off + i], bytes + i);
+            }
+            bytes += len;
+        }
+
+        private void observe(byte b, long offset) {
+            if (interim) {
+                terminatorMatched = b == HEADER_END[terminatorMatched] ? terminatorMatched + 1 : (b == '\r' ? 1 : 0);
+                if (terminatorMatched == HEADER_END.length) {
+                    interim = false;
+                    responseStart = offset + 1;
+                    status = 0;
+                    statusDigits = 0;
+                }
+                return;
+            }
+            // "HTTP/1.1 200" - the status code is bytes 9..11 of the response.
+            long position = offset - responseStart;
+            if (position < 9 || statusDigits >= 3 || b < '0' || b > '9') {
+                return;
+            }
+            status = status * 10 + (b - '0');
+            if (++statusDigits == 3 && status < 200) {
+                interim = true;
+                terminatorMatched = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.cordova.geckoview;
+
+/**
+ * Log sink for the server core. The Android adapter forwards to Cordova's LOG; JVM
+ * hosts can print or drop messages.
+ */
+interface ServerLogger {
+
+    void d(String tag, String message);
+
+    void w(String tag, String message, Throwable error);
+
+    /**
+     * @param error may be {@code null}
+     */
+    void e(String tag, String message, Throwable error);
+}
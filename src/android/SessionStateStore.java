@@ -0,0 +1,140 @@
+package com.cordova.geckoview;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.webkit.ValueCallback;
+
+import org.apache.cordova.LOG;
+import org.mozilla.geckoview.GeckoSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the latest {@link GeckoSession.SessionState} so a cold start after the
+ * process was killed in the background can restore history, scroll and form state.
+ * Updates are coalesced: only the newest state is kept and at most one write is
+ * issued per throttle window, always off the main thread. Every store in the process
+ * shares one I/O thread, so recreated Activities do not accumulate threads. Each engine
+ * has its own file, named after its {@link GeckoEngineHost#sessionKey session key}, so
+ * a secondary engine never restores into the main one.
+ */
+final class SessionStateStore {
+
+    private static final String TAG = "SessionStateStore";
+    private static final String FILE_NAME = "geckoview_session_state";
+    private static final long WRITE_THROTTLE_MS = 1000;
+
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "GeckoSessionStateWriter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File stateFile;
+    private final File tempFile;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private GeckoSession.SessionState pendingState;
+    private boolean writeScheduled;
+
+    SessionStateStore(Context context, String key) {
+        String name = FILE_NAME + "_" + key.replaceAll("[^A-Za-z0-9._-]", "_");
+        File dir = context.getApplicationContext().getFilesDir();
+        this.stateFile = new File(dir, name);
+        this.tempFile = new File(dir, name + ".tmp");
+    }
+
+    /**
+     * Records a new state. Called on the UI thread for every state change; the
+     * actual serialization and disk write happen at most once per throttle window.
+     */
+    synchronized void update(GeckoSession.SessionState state) {
+        if (state == null) {
+            return;
+        }
+        pendingState = state;
+        if (writeScheduled) {
+            return;
+        }
+        writeScheduled = true;
+        writer.schedule(this::writePending, WRITE_THROTTLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the persisted state on the I/O thread and delivers it on the main thread;
+     * {@code null} if there is none or it is unreadable.
+     */
+    void load(ValueCallback<GeckoSession.SessionState> callback) {
+        writer.execute(() -> {
+            GeckoSession.SessionState state = read();
+            mainHandler.post(() -> callback.onReceiveValue(state));
+        });
+    }
+
+    private GeckoSession.SessionState read() {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(stateFile)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            String serialized = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            return GeckoSession.SessionState.fromString(serialized);
+        } catch (Exception e) {
+            LOG.e(TAG, "Failed to read persisted session state", e);
+            return null;
+        }
+    }
+
+    /**
+     * Drops any pending write and deletes the persisted state, e.g. when the user
+     * finishes the Activity and the next launch should start fresh.
+     */
+    synchronized void clear() {
+        pendingState = null;
+        writer.execute(() -> {
+            if (stateFile.exists() && !stateFile.delete()) {
+                LOG.w(TAG, "Failed to delete persisted session state");
+            }
+        });
+    }
+
+    private void writePending() {
+        GeckoSession.SessionState state;
+        synchronized (this) {
+            state = pendingState;
+            pendingState = null;
+            writeScheduled = false;
+        }
+        if (state == null) {
+            return;
+        }
+        String serialized = state.toString();
+        if (serialized == null) {
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            out.write(serialized.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOG.e(TAG, "Failed to persist session state", e);
+            return;
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            LOG.w(TAG, "Failed to replace persisted session state");
+        }
+    }
+}
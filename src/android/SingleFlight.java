@@ -0,0 +1,110 @@
+package com.cordova.geckoview;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Collapses concurrent loads of the same key into one.
+ *
+ * The first caller for a key runs the loader; callers arriving while it is in flight
+ * wait for its result (or its exception) instead of loading again. Nothing is cached
+ * once the load completes. A result that waiters cannot use as is (say, a stream only
+ * one of them can read) is handed to them all the same, but is not counted as a load
+ * avoided.
+ */
+final class SingleFlight<T> {
+
+    interface Loader<T> {
+        T load() throws IOException;
+    }
+
+    /**
+     * Thrown to a waiting caller when the shared load does not finish in time.
+     */
+    static final class TimeoutException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Call<T> {
+        final CountDownLatch done = new CountDownLatch(1);
+        T value;
+        IOException error;
+    }
+
+    private final Map<String, Call<T>> calls = new HashMap<>();
+    private final Predicate<T> shareable;
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param shareable whether a result spares the waiters that receive it their own load
+     */
+    SingleFlight(Predicate<T> shareable) {
+        this.shareable = shareable;
+    }
+
+    T execute(String key, long timeoutMs, Loader<T> loader) throws IOException {
+        Call<T> call;
+        boolean leader = false;
+        synchronized (calls) {
+            call = calls.get(key);
+            if (call == null) {
+                call = new Call<>();
+                calls.put(key, call);
+                leader = true;
+            }
+        }
+        if (!leader) {
+            T value = await(key, call, timeoutMs);
+            if (shareable.test(value)) {
+                coalesced.incrementAndGet();
+            }
+            return value;
+        }
+        try {
+            call.value = loader.load();
+            return call.value;
+        } catch (IOException e) {
+            call.error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            call.error = new IOException(e);
+            throw e;
+        } finally {
+            synchronized (calls) {
+                calls.remove(key);
+            }
+            call.done.countDown();
+        }
+    }
+
+    /**
+     * Number of loads avoided because a caller joined one already in flight.
+     */
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private T await(String key, Call<T> call, long timeoutMs) throws IOException {
+        try {
+            if (!call.done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new TimeoutException("Timed out waiting for " + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + key, e);
+        }
+        if (call.error != null) {
+            throw call.error;
+        }
+        return call.value;
+    }
+}
@@ -0,0 +1,134 @@
+package com.cordova.geckoview;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.apache.cordova.LOG;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Process-wide cold-start trace, from engine construction to first contentful paint.
+ *
+ * Spans and instants use {@link SystemClock#elapsedRealtimeNanos()} and are written as a
+ * Chrome trace / Perfetto compatible JSON file ({@code geckoview-startup-trace.json} in the
+ * app's external files directory) once the first contentful paint is seen. Disabled
+ * unless the {@code GeckoStartupTrace} preference is set; every call is a no-op then.
+ */
+final class StartupTrace {
+
+    private static final String TAG = "StartupTrace";
+    private static final String FILE_NAME = "geckoview-startup-trace.json";
+
+    private static volatile boolean enabled;
+    private static boolean finished;
+    private static final List<String> events = new ArrayList<>();
+    private static final Set<String> seen = new HashSet<>();
+
+    private StartupTrace() {
+    }
+
+    static void enable() {
+        synchronized (StartupTrace.class) {
+            if (enabled || finished) {
+                return;
+            }
+            enabled = true;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            long processStart = Process.getStartElapsedRealtime() * 1000000L;
+            complete("processStartToEngine", processStart, SystemClock.elapsedRealtimeNanos() - processStart);
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a span; pass the returned token to {@link #end(String, long)}.
+     */
+    static long begin() {
+        return enabled ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    static void end(String name, long beginToken) {
+        if (!enabled || beginToken == 0) {
+            return;
+        }
+        complete(name, beginToken, SystemClock.elapsedRealtimeNanos() - beginToken);
+    }
+
+    /**
+     * Records an instant the first time {@code name} is seen; later calls are ignored.
+     */
+    static void instantOnce(String name) {
+        if (!enabled) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (StartupTrace.class) {
+            if (!seen.add(name)) {
+                return;
+            }
+            events.add(String.format(Locale.US,
+                    "{\"name\":\"%s\",\"ph\":\"i\",\"s\":\"p\",\"ts\":%d,\"pid\":%d,\"tid\":%d}",
+                    name, now / 1000, Process.myPid(), Process.myTid()));
+        }
+    }
+
+    /**
+     * Stops recording and writes the trace on a background thread.
+     */
+    static void finish(Context context) {
+        if (!enabled || context == null) {
+            return;
+        }
+        final String json;
+        synchronized (StartupTrace.class) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            enabled = false;
+            json = "{\"traceEvents\":[" + String.join(",", events) + "],\"displayTimeUnit\":\"ms\"}";
+            events.clear();
+        }
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = context.getFilesDir();
+        }
+        final File target = new File(dir, FILE_NAME);
+        Thread writer = new Thread(() -> {
+            try (OutputStream out = new FileOutputStream(target)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+                LOG.d(TAG, "Startup trace written to " + target.getAbsolutePath());
+            } catch (IOException e) {
+                LOG.e(TAG, "Failed to write startup trace", e);
+            }
+        }, "GeckoStartupTraceWriter");
+        writer.start();
+    }
+
+    private static void complete(String name, long startNanos, long durationNanos) {
+        String event = String.format(Locale.US,
+                "{\"name\":\"%s\",\"ph\":\"X\",\"ts\":%d,\"dur\":%d,\"pid\":%d,\"tid\":%d}",
+                name, startNanos / 1000, durationNanos / 1000, Process.myPid(), Process.myTid());
+        synchronized (StartupTrace.class) {
+            if (enabled) {
+                events.add(event);
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.cordova.geckoview;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Opt-in fault injection for the local server, to reproduce slow devices on fast ones.
+ *
+ * Configured from a spec of {@code key=value} pairs separated by '&' or ',' (the
+ * {@code GeckoNetworkShaping} preference, or the query of
+ * {@code /__gecko__/shaping/set}, which only exists in debug builds or when that
+ * preference is set):
+ *
+ * - latency=200         added before every asset response, in ms
+ * - jitter=50           random extra latency, 0..jitter ms
+ * - route=/js/:400      latency for paths under a prefix instead of {@code latency};
+ *                       repeatable, the longest matching prefix wins
+ * - bandwidth=256k      server-wide cap in bytes per second (k, m: powers of 1024),
+ *                       enforced with a token bucket
+ * - errors=0.05         fraction of asset requests answered with {@code errorStatus}
+ * - errorStatus=503
+ * - open=30             delay before every resource open, in ms (slow storage)
+ *
+ * Engine and control paths are never shaped, so shaping can always be switched off;
+ * the exception is {@code /__gecko__/batch}, which stands in for asset requests.
+ * Instances are immutable apart from the bucket; the server swaps them atomically.
+ */
+final class TrafficShaper {
+
+    // Bucket size as a fraction of a second of bandwidth; bounds the burst after idle.
+    private static final double BURST_SECONDS = 0.1;
+    private static final int SLICE_BYTES = 4096;
+
+    final String spec;
+    final long latencyMs;
+    final long jitterMs;
+    final long bytesPerSecond;
+    final double errorRate;
+    final int errorStatus;
+    final long openDelayMs;
+    private final String[] routePrefixes;
+    private final long[] routeLatencyMs;
+
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    private TrafficShaper(String spec, long latencyMs, long jitterMs, long bytesPerSecond, double errorRate,
+                          int errorStatus, long openDelayMs, String[] routePrefixes, long[] routeLatencyMs) {
+        this.spec = spec;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.bytesPerSecond = bytesPerSecond;
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        this.openDelayMs = openDelayMs;
+        this.routePrefixes = routePrefixes;
+        this.routeLatencyMs = routeLatencyMs;
+        this.tokens = bucketSize();
+    }
+
+    /**
+     * Parses a shaping spec.
+     *
+     * @return {@code null} if the spec is empty or has no effect
+     * @throws IllegalArgumentException on an unknown key or malformed value
+     */
+    static TrafficShaper parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return null;
+        }
+        long latency = 0;
+        long jitter = 0;
+        long bandwidth = 0;
+        double errors = 0;
+        int errorStatus = 503;
+        long open = 0;
+        List<String> prefixes = new ArrayList<>();
+        List<Long> routeLatencies = new ArrayList<>();
+        for (String pair : spec.trim().split("[&,]")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String key = UriCodec.decode(eq >= 0 ? pair.substring(0, eq) : pair, true).trim();
+            String value = eq >= 0 ? UriCodec.decode(pair.substring(eq + 1), true).trim() : "";
+            switch (key) {
+                case "latency":
+                    latency = parseMillis(key, value);
+                    break;
+                case "jitter":
+                    jitter = parseMillis(key, value);
+                    break;
+                case "route": {
+                    int colon = value.lastIndexOf(':');
+                    if (colon <= 0 || !value.startsWith("/")) {
+                        throw new IllegalArgumentException("route must be /prefix:ms, got '" + value + "'");
+                    }
+                    prefixes.add(value.substring(0, colon));
+                    routeLatencies.add(parseMillis(key, value.substring(colon + 1)));
+                    break;
+                }
+                case "bandwidth":
+                    bandwidth = parseBytes(value);
+                    break;
+                case "errors":
+                    try {
+                        errors = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        errors = -1;
+                    }
+                    if (errors < 0 || errors > 1) {
+                        throw new IllegalArgumentException("errors must be between 0 and 1, got '" + value + "'");
+                    }
+                    break;
+                case "errorStatus":
+                    try {
+                        errorStatus = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        errorStatus = -1;
+                    }
+                    if (errorStatus < 400 || errorStatus > 599) {
+                        throw new IllegalArgumentException("errorStatus must be 4xx or 5xx, got '" + value + "'");
+                    }
+                    break;
+                case "open":
+                    open = parseMillis(key, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown shaping key '" + key + "'");
+            }
+        }
+        if (latency == 0 && jitter == 0 && bandwidth == 0 && errors == 0 && open == 0 && prefixes.isEmpty()) {
+            return null;
+        }
+        // Longest prefix first, so the first match wins.
+        Integer[] order = new Integer[prefixes.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> prefixes.get(b).length() - prefixes.get(a).length());
+        String[] routePrefixes = new String[order.length];
+        long[] routeLatency = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            routePrefixes[i] = prefixes.get(order[i]);
+            routeLatency[i] = routeLatencies.get(order[i]);
+        }
+        return new TrafficShaper(spec.trim(), latency, jitter, bandwidth, errors, errorStatus, open,
+                routePrefixes, routeLatency);
+    }
+
+    /**
+     * Waits out the latency for {@code path} (the request path within its mount).
+     *
+     * @return true if this request should fail with {@link #errorStatusLine()}
+     */
+    boolean shapeRequest(String path) {
+        long delay = latencyMs;
+        for (int i = 0; i < routePrefixes.length; i++) {
+            if (path.startsWith(routePrefixes[i])) {
+                delay = routeLatencyMs[i];
+                break;
+            }
+        }
+        if (jitterMs > 0) {
+            delay += ThreadLocalRandom.current().nextLong(jitterMs + 1);
+        }
+        sleep(delay);
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    void throttleOpen() {
+        sleep(openDelayMs);
+    }
+
+    /**
+     * Returns {@code out} limited to the shared bandwidth, or {@code out} itself if there
+     * is no cap.
+     */
+    OutputStream wrap(OutputStream out) {
+        if (bytesPerSecond <= 0) {
+            return out;
+        }
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                acquire(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    int slice = Math.min(len, SLICE_BYTES);
+                    acquire(slice);
+                    out.write(b, off, slice);
+                    off += slice;
+                    len -= slice;
+                }
+            }
+        };
+    }
+
+    String errorStatusLine() {
+        switch (errorStatus) {
+            case 404:
+                return "404 Not Found";
+            case 429:
+                return "429 Too Many Requests";
+            case 500:
+                return "500 Internal Server Error";
+            case 502:
+                return "502 Bad Gateway";
+            case 503:
+                return "503 Service Unavailable";
+            case 504:
+                return "504 Gateway Timeout";
+            default:
+                return errorStatus + " Injected Fault";
+        }
+    }
+
+    String toJson() {
+        StringBuilder routes = new StringBuilder("{");
+        for (int i = 0; i < routePrefixes.length; i++) {
+            if (i > 0) {
+                routes.append(',');
+            }
+            routes.append('"').append(routePrefixes[i].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\":").append(routeLatencyMs[i]);
+        }
+        routes.append('}');
+        return String.format(Locale.US,
+                "{\"enabled\":true,\"latencyMs\":%d,\"jitterMs\":%d,\"routes\":%s,\"bytesPerSecond\":%d," +
+                "\"errorRate\":%s,\"errorStatus\":%d,\"openDelayMs\":%d}",
+                latencyMs, jitterMs, routes, bytesPerSecond, Double.toString(errorRate), errorStatus, openDelayMs);
+    }
+
+    /**
+     * Takes {@code bytes} tokens, sleeping off any deficit. Reserving ahead (the balance
+     * may go negative) keeps concurrent writers in arrival order without holding the lock
+     * while sleeping.
+     */
+    private void acquire(int bytes) {
+        double deficit;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(bucketSize(), tokens + (now - lastRefillNanos) / 1e9 * bytesPerSecond);
+            lastRefillNanos = now;
+            tokens -= bytes;
+            deficit = -tokens;
+        }
+        if (deficit > 0) {
+            long nanos = (long) (deficit / bytesPerSecond * 1e9);
+            try {
+                Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private double bucketSize() {
+        return Math.max(SLICE_BYTES, bytesPerSecond * BURST_SECONDS);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long parseMillis(String key, String value) {
+        try {
+            long millis = Long.parseLong(value);
+            if (millis >= 0) {
+                return millis;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(key + " must be a non-negative number of ms, got '" + value + "'");
+    }
+
+    private static long parseBytes(String value) {
+        String number = value.toLowerCase(Locale.US);
+        long unit = 1;
+        if (number.endsWith("k")) {
+            unit = 1024;
+        } else if (number.endsWith("m")) {
+            unit = 1024 * 1024;
+        }
+        if (unit > 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        try {
+            long bytes = Long.parseLong(number) * unit;
+            if (bytes >= 0) {
+                return bytes;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("bandwidth must be bytes per second, got '" + value + "'");
+    }
+}
@@ -0,0 +1,170 @@
+package com.cordova.geckoview;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The parts of android.net.Uri the server core needs, on plain strings: percent
+ * encoding compatible with {@code Uri.encode}/{@code Uri.decode}, path segments and
+ * query parameters.
+ */
+final class UriCodec {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    // Characters Uri.encode leaves alone besides letters and digits.
+    private static final String UNRESERVED = "_-!.~'()*";
+
+    private UriCodec() {
+    }
+
+    static String encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder encoded = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                if (encoded != null) {
+                    encoded.append(c);
+                }
+                continue;
+            }
+            if (encoded == null) {
+                encoded = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            int end = i + 1;
+            while (end < value.length() && !isUnreserved(value.charAt(end))) {
+                end++;
+            }
+            for (byte b : value.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                encoded.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+            }
+            i = end - 1;
+        }
+        return encoded != null ? encoded.toString() : value;
+    }
+
+    static String decode(String value) {
+        return decode(value, false);
+    }
+
+    /**
+     * Decodes %XX escapes as UTF-8. Malformed escapes are kept literally.
+     */
+    static String decode(String value, boolean plusAsSpace) {
+        if (value == null || (value.indexOf('%') < 0 && (!plusAsSpace || value.indexOf('+') < 0))) {
+            return value;
+        }
+        StringBuilder decoded = new StringBuilder(value.length());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (isEscape(value, i)) {
+                bytes.reset();
+                while (isEscape(value, i)) {
+                    bytes.write((hex(value.charAt(i + 1)) << 4) | hex(value.charAt(i + 2)));
+                    i += 3;
+                }
+                decoded.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                continue;
+            }
+            decoded.append(plusAsSpace && c == '+' ? ' ' : c);
+            i++;
+        }
+        return decoded.toString();
+    }
+
+    /**
+     * Returns the encoded path of {@code uri}: everything after the authority (if any),
+     * without query and fragment.
+     */
+    static String path(String uri) {
+        if (uri == null) {
+            return null;
+        }
+        int end = indexOfAny(uri, "?#");
+        String value = end >= 0 ? uri.substring(0, end) : uri;
+        int scheme = value.indexOf("://");
+        if (scheme >= 0) {
+            int slash = value.indexOf('/', scheme + 3);
+            return slash >= 0 ? value.substring(slash) : "";
+        }
+        return value;
+    }
+
+    /**
+     * Like {@code Uri.getLastPathSegment()}: the last non-empty path segment, decoded,
+     * or {@code null} if the path has none.
+     */
+    static String lastPathSegment(String uri) {
+        String path = path(uri);
+        if (path == null) {
+            return null;
+        }
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return decode(path.substring(path.lastIndexOf('/', end - 1) + 1, end));
+    }
+
+    /**
+     * Returns the first decoded value of query parameter {@code name}, or {@code null}.
+     */
+    static String queryParameter(String uri, String name) {
+        if (uri == null || name == null) {
+            return null;
+        }
+        int start = uri.indexOf('?');
+        if (start < 0) {
+            return null;
+        }
+        int fragment = uri.indexOf('#', start);
+        String query = uri.substring(start + 1, fragment >= 0 ? fragment : uri.length());
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = decode(eq >= 0 ? pair.substring(0, eq) : pair, true);
+            if (name.equals(key)) {
+                return eq >= 0 ? decode(pair.substring(eq + 1), true) : "";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEscape(String value, int i) {
+        return i + 2 < value.length() && value.charAt(i) == '%' &&
+                hex(value.charAt(i + 1)) >= 0 && hex(value.charAt(i + 2)) >= 0;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                UNRESERVED.indexOf(c) >= 0;
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static int indexOfAny(String value, String chars) {
+        for (int i = 0; i < value.length(); i++) {
+            if (chars.indexOf(value.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,383 @@
+package com.cordova.geckoview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Declarative URL routing table shared by navigation interception, start URL rewriting
+ * and the local server's path resolution.
+ *
+ * Routes are compiled once into two prefix tries: one keyed by page URL (scheme, host,
+ * path) and one keyed by server path, so each lookup is a single walk over the string
+ * without {@code Uri.parse} or lower-casing copies. Scheme and host compare
+ * case-insensitively and the port is ignored.
+ *
+ * Apps can add routes in config.xml:
+ * <pre>
+ * &lt;gecko-route match="file:///android_asset/www/game" action="reroute" /&gt;
+ * &lt;gecko-route match="file:///sdcard/Download/" action="serve" path="/_ext_download/" /&gt;
+ * &lt;gecko-route match="file:///android_asset/www/raw/" action="pass" /&gt;
+ * </pre>
+ */
+final class UrlRouter {
+
+    enum Action {
+        /** Already on the local server origin; load as is. */
+        LOOPBACK,
+        /** Loopback URL that names the start page (root or index.html). */
+        ENTRY,
+        /** Local file URL served by the local server under a path prefix. */
+        SERVE,
+        /** Leave to Gecko untouched. */
+        PASS
+    }
+
+    static final class Route {
+        final Action action;
+        final String match;
+        final String serverPrefix;
+        // The whole URL is percent-encoded after serverPrefix (cdvfile).
+        final boolean encoded;
+        // Resolves against the active (possibly overridden) app base.
+        final boolean appRoot;
+        // Navigations are rerouted through the server even for non-document paths.
+        final boolean reroute;
+        final boolean exact;
+        private boolean authorityOnly;
+
+        Route(Action action, String match, String serverPrefix,
+              boolean encoded, boolean appRoot, boolean reroute, boolean exact) {
+            this.action = action;
+            this.match = match;
+            this.serverPrefix = serverPrefix;
+            this.encoded = encoded;
+            this.appRoot = appRoot;
+            this.reroute = reroute;
+            this.exact = exact;
+        }
+    }
+
+    static final class Match {
+        final Route route;
+        /** Index in the input where the unmatched remainder starts. */
+        final int end;
+        /** Index in the input where the path starts (after scheme, host and port). */
+        final int pathStart;
+
+        Match(Route route, int end, int pathStart) {
+            this.route = route;
+            this.end = end;
+            this.pathStart = pathStart;
+        }
+
+        /**
+         * True for an ENTRY route or a bare loopback origin, both of which name the start page.
+         */
+        boolean isEntry(String input) {
+            if (route.action == Action.ENTRY) {
+                return true;
+            }
+            return route.action == Action.LOOPBACK &&
+                    (pathStart == input.length() || input.charAt(pathStart) == '?' ||
+                     input.charAt(pathStart) == '#');
+        }
+    }
+
+    private static final class Node {
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        Route route;
+
+        Node child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node childOrCreate(char c) {
+            Node existing = child(c);
+            if (existing != null) {
+                return existing;
+            }
+            int n = keys.length;
+            char[] newKeys = new char[n + 1];
+            Node[] newChildren = new Node[n + 1];
+            System.arraycopy(keys, 0, newKeys, 0, n);
+            System.arraycopy(children, 0, newChildren, 0, n);
+            newKeys[n] = c;
+            newChildren[n] = new Node();
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[n];
+        }
+    }
+
+    static final String CDV_SERVER_PREFIX = "/_cdvfile_/";
+    static final String APP_FILE_SERVER_PREFIX = "/_app_file_";
+    private static final String ANDROID_ASSET_WWW = "file:///android_asset/www/";
+    private static final String[] LOOPBACK_HOSTS = {"localhost", "127.0.0.1"};
+    private static final String[] LOOPBACK_SCHEMES = {"http", "https"};
+
+    private final Node urlRoot = new Node();
+    private final Node serverRoot = new Node();
+    private final List<Route> serveRoutes = new ArrayList<>();
+
+    private UrlRouter() {
+    }
+
+    /**
+     * Longest-prefix match of a page URL, or {@code null} if no route applies.
+     */
+    Match match(String url) {
+        if (url == null) {
+            return null;
+        }
+        int length = url.length();
+        int schemeEnd = url.indexOf("://");
+        int authorityEnd = -1;
+        if (schemeEnd > 0) {
+            int slash = url.indexOf('/', schemeEnd + 3);
+            authorityEnd = slash >= 0 ? slash : length;
+            int query = indexOfAny(url, schemeEnd + 3, authorityEnd, '?', '#');
+            if (query >= 0) {
+                authorityEnd = query;
+            }
+        }
+        int pathStart = authorityEnd >= 0 ? authorityEnd : 0;
+        int lowerEnd = schemeEnd > 0 ? authorityEnd : url.indexOf(':') + 1;
+
+        Node node = urlRoot;
+        Route best = null;
+        int bestEnd = 0;
+        int i = 0;
+        while (i < length) {
+            char c = url.charAt(i);
+            if (i < lowerEnd) {
+                if (c == ':' && i > schemeEnd + 2 && i < authorityEnd) {
+                    // Skip the port so routes match regardless of it.
+                    i = authorityEnd;
+                    continue;
+                }
+                c = Character.toLowerCase(c);
+            }
+            if (c == '?' || c == '#') {
+                break;
+            }
+            node = node.child(c);
+            if (node == null) {
+                break;
+            }
+            i++;
+            if (node.route != null && accepts(node.route, url, i, authorityEnd)) {
+                best = node.route;
+                bestEnd = i;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        return new Match(best, bestEnd, pathStart);
+    }
+
+    /**
+     * Longest-prefix match of a server request path (query already stripped), or
+     * {@code null} if the path belongs to the app root.
+     */
+    Match matchServerPath(String path) {
+        if (path == null) {
+            return null;
+        }
+        Node node = serverRoot;
+        Route best = null;
+        int bestEnd = 0;
+        for (int i = 0; i < path.length(); i++) {
+            node = node.child(path.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.route != null) {
+                best = node.route;
+                bestEnd = i + 1;
+            }
+        }
+        return best != null ? new Match(best, bestEnd, 0) : null;
+    }
+
+    /**
+     * Serializes the URL-side SERVE routes for {@code convertFileSrc} in JS.
+     */
+    String toJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < serveRoutes.size(); i++) {
+            Route route = serveRoutes.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"match\":\"").append(jsonEscape(route.match))
+                .append("\",\"path\":\"").append(jsonEscape(route.serverPrefix))
+                .append("\",\"encode\":").append(route.encoded)
+                .append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private static boolean accepts(Route route, String url, int end, int authorityEnd) {
+        boolean atPathEnd = end == url.length() || url.charAt(end) == '?' || url.charAt(end) == '#';
+        if (route.exact) {
+            return atPathEnd;
+        }
+        if (route.authorityOnly) {
+            // "http://localhost" must not match "http://localhost.example.com".
+            return atPathEnd || end == authorityEnd || url.charAt(end) == '/' || url.charAt(end) == ':';
+        }
+        return true;
+    }
+
+    private static int indexOfAny(String s, int from, int to, char a, char b) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == a || c == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String jsonEscape(String text) {
+        String value = text == null ? "" : text;
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private void addUrlRoute(Route route) {
+        String key = normalizeUrlKey(route.match);
+        int schemeEnd = key.indexOf("://");
+        route.authorityOnly = schemeEnd > 0 && key.length() > schemeEnd + 3 &&
+                key.indexOf('/', schemeEnd + 3) < 0;
+        Node node = urlRoot;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.childOrCreate(key.charAt(i));
+        }
+        node.route = route;
+        if (route.action == Action.SERVE && !route.reroute) {
+            serveRoutes.add(route);
+        }
+    }
+
+    private void addServerRoute(String serverPrefix, Route route) {
+        Node node = serverRoot;
+        for (int i = 0; i < serverPrefix.length(); i++) {
+            node = node.childOrCreate(serverPrefix.charAt(i));
+        }
+        node.route = route;
+    }
+
+    private static String normalizeUrlKey(String match) {
+        int schemeEnd = match.indexOf("://");
+        if (schemeEnd < 0) {
+            return match.toLowerCase(Locale.US);
+        }
+        int slash = match.indexOf('/', schemeEnd + 3);
+        int authorityEnd = slash >= 0 ? slash : match.length();
+        String authority = match.substring(0, authorityEnd).toLowerCase(Locale.US);
+        int port = authority.indexOf(':', schemeEnd + 3);
+        if (port >= 0) {
+            authority = authority.substring(0, port);
+        }
+        return authority + match.substring(authorityEnd);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Collects routes from config.xml and compiles them together with the built-in
+     * routes for the app base.
+     */
+    static final class Builder {
+        private final List<String[]> configured = new ArrayList<>();
+
+        /**
+         * Adds a {@code <gecko-route>} declaration. Unknown actions are ignored.
+         */
+        Builder addConfigRoute(String match, String action, String path) {
+            if (!isEmpty(match) && !isEmpty(action)) {
+                configured.add(new String[]{match.trim(), action.trim().toLowerCase(Locale.US), path});
+            }
+            return this;
+        }
+
+        UrlRouter build(String appBase) {
+            UrlRouter router = new UrlRouter();
+            for (String scheme : LOOPBACK_SCHEMES) {
+                for (String host : LOOPBACK_HOSTS) {
+                    String origin = scheme + "://" + host;
+                    router.addUrlRoute(new Route(Action.LOOPBACK, origin, "/", false, false, false, false));
+                    for (String entry : new String[]{origin + "/", origin + "/index.html"}) {
+                        router.addUrlRoute(new Route(Action.ENTRY, entry, "/", false, false, false, true));
+                    }
+                }
+            }
+            router.addUrlRoute(new Route(Action.PASS, "javascript:", null, false, false, false, false));
+
+            Route cdvfile = new Route(Action.SERVE, "cdvfile://", CDV_SERVER_PREFIX, true, false, false, false);
+            router.addUrlRoute(cdvfile);
+            router.addServerRoute(CDV_SERVER_PREFIX, cdvfile);
+
+            Route assets = new Route(Action.SERVE, ANDROID_ASSET_WWW, "/", false, true, false, false);
+            router.addUrlRoute(assets);
+            if (!isEmpty(appBase) && !ANDROID_ASSET_WWW.equals(appBase)) {
+                router.addUrlRoute(new Route(Action.SERVE, appBase, "/", false, true, false, false));
+            }
+            router.addServerRoute(APP_FILE_SERVER_PREFIX, assets);
+            // Navigating to the www directory itself opens the start page.
+            for (String base : new String[]{ANDROID_ASSET_WWW, appBase}) {
+                if (!isEmpty(base)) {
+                    String dir = base.substring(0, base.length() - 1);
+                    router.addUrlRoute(new Route(Action.SERVE, dir, "/", false, true, true, true));
+                }
+            }
+
+            for (String[] spec : configured) {
+                router.compileConfigRoute(spec[0], spec[1], spec[2]);
+            }
+            return router;
+        }
+    }
+
+    private void compileConfigRoute(String match, String action, String path) {
+        switch (action) {
+            case "pass":
+                addUrlRoute(new Route(Action.PASS, match, null, false, false, false, false));
+                break;
+            case "reroute": {
+                // Inherit the server mapping of the serve route that contains this prefix.
+                Match parent = match(match);
+                if (parent == null || parent.route.action != Action.SERVE || parent.route.encoded) {
+                    return;
+                }
+                String serverPrefix = parent.route.serverPrefix + match.substring(parent.end);
+                addUrlRoute(new Route(Action.SERVE, match, serverPrefix,
+                        false, parent.route.appRoot, true, false));
+                break;
+            }
+            case "serve": {
+                if (isEmpty(path) || !path.startsWith("/")) {
+                    return;
+                }
+                String base = match.endsWith("/") ? match : match + "/";
+                String serverPrefix = path.endsWith("/") ? path : path + "/";
+                Route route = new Route(Action.SERVE, base, serverPrefix, false, false, false, false);
+                addUrlRoute(route);
+                addServerRoute(serverPrefix, route);
+                break;
+            }
+            default:
+                break;
+        }
+    }
+}
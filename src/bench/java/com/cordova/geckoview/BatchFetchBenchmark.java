@@ -0,0 +1,95 @@
+package com.cordova.geckoview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to fetch a route's worth of small chunks: one request per chunk over
+ * {@link #CONNECTIONS} parallel connections (Gecko's per-host limit), against a single
+ * {@code /__gecko__/batch} request for the same set. {@code latencyMs} adds per-request
+ * latency through the traffic shaper, as on a slow device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class BatchFetchBenchmark {
+
+    static final int CONNECTIONS = 6;
+
+    @Param({"8", "32", "64"})
+    public int chunks;
+
+    @Param({"0", "20"})
+    public int latencyMs;
+
+    private BenchFixture fixture;
+    private ExecutorService pool;
+    private String[] paths;
+    private String batchPath;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        fixture = BenchFixture.start();
+        fixture.server.setShaping(latencyMs > 0 ? TrafficShaper.parse("latency=" + latencyMs) : null);
+        pool = Executors.newFixedThreadPool(CONNECTIONS);
+        paths = new String[chunks];
+        StringBuilder query = new StringBuilder("/__gecko__/batch?");
+        for (int i = 0; i < chunks; i++) {
+            paths[i] = "/chunks/c" + i + ".js";
+            query.append(i > 0 ? "&" : "").append("p=").append(UriCodec.encode(paths[i]));
+        }
+        batchPath = query.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        pool.shutdownNow();
+        fixture.close();
+    }
+
+    @Benchmark
+    public long individual() throws Exception {
+        List<Future<Long>> results = new ArrayList<>(CONNECTIONS);
+        for (int c = 0; c < CONNECTIONS; c++) {
+            final int connection = c;
+            results.add(pool.submit(() -> {
+                long bytes = 0;
+                for (int i = connection; i < chunks; i += CONNECTIONS) {
+                    bytes += fixture.fetch(paths[i], BenchFixture.GECKO_HEADERS);
+                }
+                return bytes;
+            }));
+        }
+        long total = 0;
+        for (Future<Long> result : results) {
+            total += result.get();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long batched() throws Exception {
+        return fixture.fetch(batchPath, BenchFixture.GECKO_HEADERS);
+    }
+}
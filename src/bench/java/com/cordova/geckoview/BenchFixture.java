@@ -0,0 +1,106 @@
+package com.cordova.geckoview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A ServerCore on the loopback interface serving a generated directory of sample
+ * assets, plus a minimal blocking HTTP/1.1 client.
+ */
+final class BenchFixture implements AutoCloseable {
+
+    static final String SMALL_ASSET = "/js/app.js";
+    static final String LARGE_ASSET = "/media/video.bin";
+    static final String MISSING_ASSET = "/js/app.js.map";
+    // Lazy-loaded route chunks, /chunks/c0.js to /chunks/c<CHUNKS - 1>.js, 1 to 4 KB each.
+    static final int CHUNKS = 64;
+
+    // Header block of a typical GeckoView subresource request.
+    static final String GECKO_HEADERS =
+            "User-Agent: Mozilla/5.0 (Android 14; Mobile; rv:146.0) Gecko/146.0 Firefox/146.0\r\n" +
+            "Accept: */*\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate, br, zstd\r\n" +
+            "Referer: http://localhost/index.html\r\n" +
+            "Sec-Fetch-Dest: script\r\n" +
+            "Sec-Fetch-Mode: no-cors\r\n" +
+            "Sec-Fetch-Site: same-origin\r\n" +
+            "Cookie: session=0123456789abcdef; theme=dark\r\n" +
+            "Connection: keep-alive\r\n";
+
+    final File root;
+    final ServerCore server;
+    final ServerCore.Mount mount;
+    final int port;
+
+    private BenchFixture(File root, ServerCore server) {
+        this.root = root;
+        this.server = server;
+        this.mount = server.registerMount();
+        this.port = Integer.parseInt(server.getBaseUrl().substring(server.getBaseUrl().lastIndexOf(':') + 1));
+    }
+
+    static BenchFixture start() throws IOException {
+        File root = Files.createTempDirectory("gecko-bench").toFile();
+        write(root, "index.html", 2 * 1024);
+        write(root, "js/app.js", 64 * 1024);
+        write(root, "js/vendor.js", 200 * 1024);
+        write(root, "css/app.css", 16 * 1024);
+        write(root, "img/logo.svg", 4 * 1024);
+        write(root, "media/video.bin", 1024 * 1024);
+        for (int i = 0; i < CHUNKS; i++) {
+            write(root, "chunks/c" + i + ".js", 1024 + (i % 4) * 1024);
+        }
+        ServerCore server = new ServerCore(new DirectoryResourceProvider(root), new MemoryPreferenceStore(),
+                new StreamLogger(System.err, false), DirectoryResourceProvider.baseUrl(root),
+                new UrlRouter.Builder(), null);
+        server.start();
+        return new BenchFixture(root, server);
+    }
+
+    private static void write(File root, String path, int size) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 'x');
+        Files.write(file.toPath(), data);
+    }
+
+    /**
+     * Issues one GET and drains the response.
+     *
+     * @return the number of response bytes, headers included
+     */
+    long fetch(String path, String headers) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost:" + port + "\r\n" + headers + "\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[16 * 1024];
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop();
+        try (java.util.stream.Stream<java.nio.file.Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+}
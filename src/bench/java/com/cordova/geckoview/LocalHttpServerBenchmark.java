@@ -0,0 +1,63 @@
+package com.cordova.geckoview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-request latency over loopback: a cached small asset, a streamed large asset,
+ * a miss, and the same small asset with a full Gecko header block so the difference
+ * isolates request parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalHttpServerBenchmark {
+
+    private BenchFixture fixture;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        fixture = BenchFixture.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public long smallAsset() throws IOException {
+        return fixture.fetch(BenchFixture.SMALL_ASSET, "");
+    }
+
+    @Benchmark
+    public long smallAssetGeckoHeaders() throws IOException {
+        return fixture.fetch(BenchFixture.SMALL_ASSET, BenchFixture.GECKO_HEADERS);
+    }
+
+    @Benchmark
+    public long largeAsset() throws IOException {
+        return fixture.fetch(BenchFixture.LARGE_ASSET, "");
+    }
+
+    @Benchmark
+    public long missingAsset() throws IOException {
+        return fixture.fetch(BenchFixture.MISSING_ASSET, "");
+    }
+}
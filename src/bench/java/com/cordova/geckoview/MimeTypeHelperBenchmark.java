@@ -0,0 +1,50 @@
+package com.cordova.geckoview;
+
+import android.net.Uri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MIME normalisation for the extensions a Cordova app typically serves, both when the
+ * resource API already knows the type and when it reports application/octet-stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeTypeHelperBenchmark {
+
+    @Param({"js", "mjs", "css", "wasm", "woff2", "html", "png"})
+    public String extension;
+
+    private Uri asset;
+
+    @Setup
+    public void setUp() {
+        asset = Uri.parse("file:///android_asset/www/assets/bundle." + extension);
+    }
+
+    @Benchmark
+    public String octetStream() {
+        return MimeTypeHelper.ensureMimeType(asset, "application/octet-stream");
+    }
+
+    @Benchmark
+    public String knownType() {
+        return MimeTypeHelper.ensureMimeType(asset, "text/plain");
+    }
+}
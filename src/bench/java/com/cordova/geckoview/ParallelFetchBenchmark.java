@@ -0,0 +1,80 @@
+package com.cordova.geckoview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request throughput with 1 to 64 concurrent clients fetching a boot-like asset mix.
+ * Each invocation issues {@link #REQUESTS} requests, so the score is requests per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ParallelFetchBenchmark {
+
+    static final int REQUESTS = 256;
+    private static final String[] BOOT_MIX = {
+            "/index.html", "/js/app.js", "/js/vendor.js", "/css/app.css", "/img/logo.svg"
+    };
+
+    @Param({"1", "4", "16", "64"})
+    public int clients;
+
+    private BenchFixture fixture;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        fixture = BenchFixture.start();
+        pool = Executors.newFixedThreadPool(clients);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        pool.shutdownNow();
+        fixture.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public long bootMix() throws Exception {
+        List<Future<Long>> results = new ArrayList<>(clients);
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            results.add(pool.submit(() -> {
+                long bytes = 0;
+                for (int i = client; i < REQUESTS; i += clients) {
+                    bytes += fixture.fetch(BOOT_MIX[i % BOOT_MIX.length], BenchFixture.GECKO_HEADERS);
+                }
+                return bytes;
+            }));
+        }
+        long total = 0;
+        for (Future<Long> result : results) {
+            total += result.get();
+        }
+        return total;
+    }
+}
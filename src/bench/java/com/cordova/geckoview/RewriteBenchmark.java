@@ -0,0 +1,74 @@
+package com.cordova.geckoview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * URL rewriting (file, loopback and cdvfile URLs to server URLs) and server path
+ * resolution, without any I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewriteBenchmark {
+
+    private BenchFixture fixture;
+    private String appFileUrl;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        fixture = BenchFixture.start();
+        appFileUrl = DirectoryResourceProvider.baseUrl(fixture.root) + "js/app.js";
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public String rewriteAppFile() {
+        return fixture.mount.rewriteUri(appFileUrl);
+    }
+
+    @Benchmark
+    public String rewriteLoopback() {
+        return fixture.mount.rewriteUri("https://localhost/index.html?boot=1");
+    }
+
+    @Benchmark
+    public String rewriteCdvfile() {
+        return fixture.mount.rewriteUri("cdvfile://localhost/persistent/photos/img_0001.jpg");
+    }
+
+    @Benchmark
+    public String rewritePassThrough() {
+        return fixture.mount.rewriteUri("https://example.com/api/v1/items");
+    }
+
+    @Benchmark
+    public String resolveAppPath() {
+        return fixture.mount.resolveTarget("/js/app.js?v=42");
+    }
+
+    @Benchmark
+    public String resolveEncodedPath() {
+        return fixture.mount.resolveTarget("/_cdvfile_/cdvfile%3A%2F%2Flocalhost%2Fpersistent%2Fimg.png");
+    }
+}
@@ -0,0 +1,81 @@
+package com.cordova.geckoview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency soak for the server core: many clients hammer one server with a mix of
+ * small, large, missing and engine-endpoint requests, and every response must match
+ * the size it had when fetched alone. Exits non-zero on any mismatch or I/O error.
+ *
+ *   src/bench/run.sh soak [requests] [clients]
+ */
+public final class ServerSoak {
+
+    private static final String[] MIX = {
+            "/index.html", "/", BenchFixture.SMALL_ASSET, "/js/vendor.js", "/css/app.css",
+            "/img/logo.svg", BenchFixture.LARGE_ASSET, BenchFixture.MISSING_ASSET, "/__gecko__/routes"
+    };
+
+    private ServerSoak() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        try (BenchFixture fixture = BenchFixture.start()) {
+            Map<String, Long> expected = new HashMap<>();
+            for (String path : MIX) {
+                expected.put(path, fixture.fetch(path, BenchFixture.GECKO_HEADERS));
+            }
+            // Start cold so the first wave exercises coalesced loads.
+            fixture.server.invalidateCaches();
+
+            AtomicInteger next = new AtomicInteger();
+            AtomicInteger mismatches = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+            AtomicLong bytes = new AtomicLong();
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            long started = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                futures.add(pool.submit(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests) {
+                        String path = MIX[i % MIX.length];
+                        try {
+                            long got = fixture.fetch(path, BenchFixture.GECKO_HEADERS);
+                            bytes.addAndGet(got);
+                            if (got != expected.get(path)) {
+                                if (mismatches.incrementAndGet() <= 10) {
+                                    System.err.println(path + ": " + got + " bytes, expected " + expected.get(path));
+                                }
+                            }
+                        } catch (Exception e) {
+                            if (errors.incrementAndGet() <= 10) {
+                                System.err.println(path + ": " + e);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            pool.shutdown();
+            double seconds = (System.nanoTime() - started) / 1e9;
+            System.out.printf("%d requests, %d clients: %.0f req/s, %d MB, %d mismatches, %d errors%n",
+                    requests, clients, requests / seconds, bytes.get() >> 20, mismatches.get(), errors.get());
+            if (mismatches.get() > 0 || errors.get() > 0) {
+                System.exit(1);
+            }
+        }
+    }
+}
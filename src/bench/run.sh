@@ -0,0 +1,64 @@
+#!/bin/sh
+# Runs the server / MimeTypeHelper JMH benchmarks, or the concurrency soak, on a
+# desktop JVM.
+#
+# The server core (ServerCore and friends) has no Android dependencies and is hosted
+# by the directory-backed helpers in src/jvm. MimeTypeHelper is compiled against the
+# stand-ins in shims/ (android.net.Uri, TextUtils, MimeTypeMap).
+#
+# Benchmarks require JMH_CLASSPATH to list jmh-core, jmh-generator-annprocess and
+# their dependencies (jopt-simple, commons-math3), e.g. from a local Maven repository.
+#
+#   JMH_CLASSPATH=... src/bench/run.sh                      # everything
+#   JMH_CLASSPATH=... src/bench/run.sh ParallelFetch -p clients=64
+#   src/bench/run.sh soak [requests] [clients]              # no JMH needed
+#
+# Results are written as JMH JSON to $BENCH_RESULT (default build/bench/jmh-result.json),
+# one file per commit for CI to diff.
+set -e
+
+ROOT=$(cd "$(dirname "$0")/../.." && pwd)
+OUT="$ROOT/build/bench"
+CLASSES="$OUT/classes"
+RESULT=${BENCH_RESULT:-$OUT/jmh-result.json}
+
+CORE="$ROOT/src/android/ServerCore.java
+      $ROOT/src/android/ResourceProvider.java
+      $ROOT/src/android/PreferenceStore.java
+      $ROOT/src/android/ServerLogger.java
+      $ROOT/src/android/UriCodec.java
+      $ROOT/src/android/TrafficShaper.java
+      $ROOT/src/android/PreloadScanner.java
+      $ROOT/src/android/HtmlInliner.java
+      $ROOT/src/android/AssetFingerprints.java
+      $ROOT/src/android/PrefetchQueue.java
+      $ROOT/src/android/UrlRouter.java
+      $ROOT/src/android/AssetIndex.java
+      $ROOT/src/android/AssetCache.java
+      $ROOT/src/android/DiskAssetCache.java
+      $ROOT/src/android/SingleFlight.java
+      $(find "$ROOT/src/jvm" -name '*.java')"
+
+rm -rf "$CLASSES"
+mkdir -p "$CLASSES"
+
+if [ "$1" = "soak" ]; then
+    shift
+    javac -d "$CLASSES" $CORE \
+        "$ROOT/src/bench/java/com/cordova/geckoview/BenchFixture.java" \
+        "$ROOT/src/bench/java/com/cordova/geckoview/ServerSoak.java"
+    exec java -cp "$CLASSES" com.cordova.geckoview.ServerSoak "$@"
+fi
+
+if [ -z "$JMH_CLASSPATH" ]; then
+    echo "JMH_CLASSPATH is not set" >&2
+    exit 1
+fi
+
+javac -d "$CLASSES" -cp "$JMH_CLASSPATH" \
+    -processor org.openjdk.jmh.generators.BenchmarkProcessor \
+    $(find "$ROOT/src/bench/shims" "$ROOT/src/bench/java" -name '*.java') \
+    $CORE \
+    "$ROOT/src/android/MimeTypeHelper.java"
+
+java -cp "$CLASSES:$JMH_CLASSPATH" org.openjdk.jmh.Main -rf json -rff "$RESULT" "$@"
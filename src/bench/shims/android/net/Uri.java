@@ -0,0 +1,181 @@
+package android.net;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JVM stand-in for the subset of {@code android.net.Uri} the server uses. Like the
+ * Android class it is lenient: the string is split into scheme, authority, path, query
+ * and fragment without validation, and accessors without "Encoded" decode.
+ */
+public final class Uri {
+
+    private static final String HEX = "0123456789ABCDEF";
+
+    private final String uriString;
+    private final String scheme;
+    private final String authority;
+    private final String encodedPath;
+    private final String encodedQuery;
+
+    private Uri(String uriString) {
+        this.uriString = uriString;
+        int end = uriString.indexOf('#');
+        String rest = end >= 0 ? uriString.substring(0, end) : uriString;
+        int colon = rest.indexOf(':');
+        int slash = rest.indexOf('/');
+        if (colon > 0 && (slash < 0 || colon < slash)) {
+            scheme = rest.substring(0, colon);
+            rest = rest.substring(colon + 1);
+        } else {
+            scheme = null;
+        }
+        if (rest.startsWith("//")) {
+            int pathStart = 2;
+            while (pathStart < rest.length() && "/?".indexOf(rest.charAt(pathStart)) < 0) {
+                pathStart++;
+            }
+            authority = rest.substring(2, pathStart);
+            rest = rest.substring(pathStart);
+        } else {
+            authority = null;
+        }
+        int query = rest.indexOf('?');
+        encodedPath = query >= 0 ? rest.substring(0, query) : rest;
+        encodedQuery = query >= 0 ? rest.substring(query + 1) : null;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    public static Uri fromFile(java.io.File file) {
+        return new Uri("file://" + encode(file.getAbsolutePath(), "/"));
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public String getHost() {
+        if (authority == null) {
+            return null;
+        }
+        String host = authority.substring(authority.indexOf('@') + 1);
+        int port = host.lastIndexOf(':');
+        return port >= 0 && host.indexOf(']') < port ? host.substring(0, port) : host;
+    }
+
+    public int getPort() {
+        String host = getHost();
+        if (host == null || authority.endsWith(host)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(authority.substring(authority.lastIndexOf(':') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public String getEncodedPath() {
+        return encodedPath;
+    }
+
+    public String getPath() {
+        return decode(encodedPath);
+    }
+
+    public String getEncodedQuery() {
+        return encodedQuery;
+    }
+
+    public String getQuery() {
+        return decode(encodedQuery);
+    }
+
+    public String getLastPathSegment() {
+        if (encodedPath == null) {
+            return null;
+        }
+        String path = encodedPath.endsWith("/") ? encodedPath.substring(0, encodedPath.length() - 1) : encodedPath;
+        if (path.isEmpty()) {
+            return null;
+        }
+        return decode(path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    public String getQueryParameter(String key) {
+        if (encodedQuery == null) {
+            return null;
+        }
+        for (String pair : encodedQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq >= 0 ? pair.substring(0, eq) : pair;
+            if (decode(name).equals(key)) {
+                return eq >= 0 ? decode(pair.substring(eq + 1).replace('+', ' ')) : "";
+            }
+        }
+        return null;
+    }
+
+    public static String encode(String s) {
+        return encode(s, null);
+    }
+
+    public static String encode(String s, String allow) {
+        if (s == null) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(s.length());
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                    "_-!.~'()*".indexOf(c) >= 0 || (allow != null && allow.indexOf(c) >= 0)) {
+                out.append(c);
+            } else {
+                out.append('%').append(HEX.charAt((b >> 4) & 0xf)).append(HEX.charAt(b & 0xf));
+            }
+        }
+        return out.toString();
+    }
+
+    public static String decode(String s) {
+        if (s == null || s.indexOf('%') < 0) {
+            return s;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+        int i = 0;
+        while (i < s.length()) {
+            if (s.charAt(i) == '%' && i + 2 < s.length()) {
+                int hi = Character.digit(s.charAt(i + 1), 16);
+                int lo = Character.digit(s.charAt(i + 2), 16);
+                if (hi >= 0 && lo >= 0) {
+                    out.write((hi << 4) | lo);
+                    i += 3;
+                    continue;
+                }
+            }
+            int next = s.indexOf('%', i + 1);
+            byte[] bytes = s.substring(i, next < 0 ? s.length() : next).getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            i = next < 0 ? s.length() : next;
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Uri && uriString.equals(((Uri) other).uriString);
+    }
+
+    @Override
+    public int hashCode() {
+        return uriString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return uriString;
+    }
+}
@@ -0,0 +1,32 @@
+package android.text;
+
+/**
+ * JVM stand-in for the subset of {@code android.text.TextUtils} the server uses.
+ */
+public final class TextUtils {
+
+    private TextUtils() {
+    }
+
+    public static boolean isEmpty(CharSequence text) {
+        return text == null || text.length() == 0;
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        if (a == b) {
+            return true;
+        }
+        return a != null && b != null && a.toString().equals(b.toString());
+    }
+
+    public static String join(CharSequence delimiter, Iterable<?> tokens) {
+        StringBuilder joined = new StringBuilder();
+        for (Object token : tokens) {
+            if (joined.length() > 0) {
+                joined.append(delimiter);
+            }
+            joined.append(token);
+        }
+        return joined.toString();
+    }
+}
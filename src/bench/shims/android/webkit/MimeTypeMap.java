@@ -0,0 +1,25 @@
+package android.webkit;
+
+import java.net.URLConnection;
+
+/**
+ * JVM stand-in for {@code android.webkit.MimeTypeMap}, backed by the JDK's file name map.
+ */
+public final class MimeTypeMap {
+
+    private static final MimeTypeMap INSTANCE = new MimeTypeMap();
+
+    private MimeTypeMap() {
+    }
+
+    public static MimeTypeMap getSingleton() {
+        return INSTANCE;
+    }
+
+    public String getMimeTypeFromExtension(String extension) {
+        if (extension == null || extension.isEmpty()) {
+            return null;
+        }
+        return URLConnection.getFileNameMap().getContentTypeFor("file." + extension);
+    }
+}
@@ -0,0 +1,102 @@
+package com.cordova.geckoview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves the server core from the local file system on a desktop JVM.
+ *
+ * {@code file:///android_asset/...} URIs map to {@code assetRoot}, so a copy of the
+ * app's assets directory behaves like the APK; other {@code file:} URIs are opened as
+ * they are. MIME types come from a fixed extension table.
+ */
+final class DirectoryResourceProvider implements ResourceProvider {
+
+    private static final String ANDROID_ASSET_PATH = "/android_asset/";
+    private static final Map<String, String> MIME_TYPES = new HashMap<>();
+
+    static {
+        MIME_TYPES.put("html", "text/html");
+        MIME_TYPES.put("htm", "text/html");
+        MIME_TYPES.put("js", "application/javascript");
+        MIME_TYPES.put("mjs", "application/javascript");
+        MIME_TYPES.put("css", "text/css");
+        MIME_TYPES.put("json", "application/json");
+        MIME_TYPES.put("map", "application/json");
+        MIME_TYPES.put("txt", "text/plain");
+        MIME_TYPES.put("xml", "text/xml");
+        MIME_TYPES.put("wasm", "application/wasm");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("png", "image/png");
+        MIME_TYPES.put("jpg", "image/jpeg");
+        MIME_TYPES.put("jpeg", "image/jpeg");
+        MIME_TYPES.put("gif", "image/gif");
+        MIME_TYPES.put("webp", "image/webp");
+        MIME_TYPES.put("ico", "image/x-icon");
+        MIME_TYPES.put("woff", "font/woff");
+        MIME_TYPES.put("woff2", "font/woff2");
+        MIME_TYPES.put("ttf", "font/ttf");
+        MIME_TYPES.put("otf", "font/otf");
+        MIME_TYPES.put("mp3", "audio/mpeg");
+        MIME_TYPES.put("mp4", "video/mp4");
+        MIME_TYPES.put("webm", "video/webm");
+    }
+
+    private final File assetRoot;
+
+    DirectoryResourceProvider(File assetRoot) {
+        this.assetRoot = assetRoot;
+    }
+
+    /**
+     * The {@code file://} base URL of {@code dir}, with a trailing slash.
+     */
+    static String baseUrl(File dir) {
+        return "file://" + dir.getAbsolutePath().replace(File.separatorChar, '/') + "/";
+    }
+
+    @Override
+    public Resource open(String uri) throws IOException {
+        File file = toFile(uri);
+        if (file == null || !file.isFile()) {
+            throw new FileNotFoundException(uri);
+        }
+        return new Resource(new FileInputStream(file), mimeType(file.getName()), file.length());
+    }
+
+    @Override
+    public String[] list(String uri) {
+        File dir = toFile(uri);
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null) {
+            return null;
+        }
+        String[] children = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            children[i] = files[i].isDirectory() ? files[i].getName() + "/" : files[i].getName();
+        }
+        return children;
+    }
+
+    private File toFile(String uri) {
+        if (uri == null || !uri.startsWith("file://")) {
+            return null;
+        }
+        String path = UriCodec.decode(UriCodec.path(uri));
+        if (path.startsWith(ANDROID_ASSET_PATH)) {
+            return new File(assetRoot, path.substring(ANDROID_ASSET_PATH.length()));
+        }
+        return new File(path);
+    }
+
+    private static String mimeType(String name) {
+        int dot = name.lastIndexOf('.');
+        String type = dot >= 0 ? MIME_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.US)) : null;
+        return type != null ? type : "application/octet-stream";
+    }
+}
@@ -0,0 +1,43 @@
+package com.cordova.geckoview;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-lifetime preference store for JVM hosts.
+ */
+final class MemoryPreferenceStore implements PreferenceStore {
+
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    @Override
+    public String getString(String key, String defValue) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : defValue;
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+    }
+
+    @Override
+    public void putInt(String key, int value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void remove(String key) {
+        values.remove(key);
+    }
+}
@@ -0,0 +1,36 @@
+package com.cordova.geckoview;
+
+import java.io.PrintStream;
+
+/**
+ * Writes server log lines in logcat's "L/tag: message" shape. Debug lines (one per
+ * request header, among others) are dropped unless {@code verbose} is set, since they
+ * dominate the cost of a load test.
+ */
+final class StreamLogger implements ServerLogger {
+
+    private final PrintStream out;
+    private final boolean verbose;
+
+    StreamLogger(PrintStream out, boolean verbose) {
+        this.out = out;
+        this.verbose = verbose;
+    }
+
+    @Override
+    public void d(String tag, String message) {
+        if (verbose) {
+            out.println("D/" + tag + ": " + message);
+        }
+    }
+
+    @Override
+    public void w(String tag, String message, Throwable error) {
+        out.println("W/" + tag + ": " + message + (error != null ? " (" + error + ")" : ""));
+    }
+
+    @Override
+    public void e(String tag, String message, Throwable error) {
+        out.println("E/" + tag + ": " + message + (error != null ? " (" + error + ")" : ""));
+    }
+}
@@ -0,0 +1,23 @@
+#!/bin/sh
+# Writes gecko-fingerprints.txt for a www directory so assets can be requested as
+# immutable /_h/<hash>/<path> URLs. Run it on the platform's copy of www after
+# `cordova prepare`, since --rewrite edits HTML and CSS in place.
+#
+#   src/tools/fingerprint.sh platforms/android/app/src/main/assets/www
+#   src/tools/fingerprint.sh platforms/android/app/src/main/assets/www --rewrite
+#
+# See AssetFingerprinter for what --rewrite touches.
+set -e
+
+ROOT=$(cd "$(dirname "$0")/../.." && pwd)
+CLASSES="$ROOT/build/tools/fingerprint"
+
+rm -rf "$CLASSES"
+mkdir -p "$CLASSES"
+
+javac -d "$CLASSES" \
+    "$ROOT/src/android/AssetFingerprints.java" \
+    "$ROOT/src/android/UriCodec.java" \
+    "$ROOT/src/tools/java/com/cordova/geckoview/AssetFingerprinter.java"
+
+exec java -cp "$CLASSES" com.cordova.geckoview.AssetFingerprinter "$@"
@@ -0,0 +1,279 @@
+package com.cordova.geckoview;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Build step that writes {@link AssetFingerprints#MAP_NAME} for a www directory.
+ *
+ *   fingerprint <www> [--rewrite]
+ *
+ * With {@code --rewrite}, references in HTML ({@code src}, {@code href}, {@code poster}
+ * of script, link and media elements) and CSS ({@code url()}) to other assets are first
+ * rewritten to their {@code /_h/<hash>/<path>} URLs, in place. References are written
+ * relative to where the referencing file is served, so they work behind any mount
+ * prefix. CSS is written as if loaded through its own fingerprinted URL; since '..'
+ * stops at the root, the same references also work from the plain URL. HTML targets,
+ * {@code @import}s between stylesheets and module scripts (a module loaded under two
+ * URLs runs twice) are left alone. Rewriting is idempotent: earlier rewrites are
+ * recognised and refreshed.
+ */
+public final class AssetFingerprinter {
+
+    private static final Pattern HTML_TAG = Pattern.compile(
+            "<(script|link|img|source|video|audio|track|input)\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HTML_URL_ATTRIBUTE = Pattern.compile(
+            "(\\s(?:src|href|poster)\\s*=\\s*)(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MODULE = Pattern.compile(
+            "\\s(?:type\\s*=\\s*[\"']?module|rel\\s*=\\s*[\"']?modulepreload)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CSS_URL = Pattern.compile(
+            "url\\(\\s*(?:\"([^\"]*)\"|'([^']*)'|([^)\\s\"']*))\\s*\\)", Pattern.CASE_INSENSITIVE);
+
+    private final Path root;
+    // Relative path -> fingerprint of everything a reference may be rewritten to.
+    private final Map<String, String> hashes = new TreeMap<>();
+    private int rewrittenReferences;
+    private int rewrittenFiles;
+
+    private AssetFingerprinter(Path root) {
+        this.root = root;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !"--rewrite".equals(args[1]))) {
+            System.err.println("usage: fingerprint <www> [--rewrite]");
+            System.exit(2);
+        }
+        Path root = Paths.get(args[0]);
+        if (!Files.isDirectory(root)) {
+            System.err.println("Not a directory: " + root);
+            System.exit(2);
+        }
+        new AssetFingerprinter(root).run(args.length == 2);
+    }
+
+    private void run(boolean rewrite) throws IOException {
+        List<String> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile)
+                    .map(path -> root.relativize(path).toString().replace('\\', '/'))
+                    .filter(path -> !path.equals(AssetFingerprints.MAP_NAME) && !path.startsWith(".") &&
+                            !path.contains("/."))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        List<String> stylesheets = new ArrayList<>();
+        List<String> documents = new ArrayList<>();
+        for (String file : files) {
+            if (isHtml(file)) {
+                documents.add(file);
+            } else if (isCss(file)) {
+                stylesheets.add(file);
+            } else {
+                hashes.put(file, AssetFingerprints.fingerprint(Files.readAllBytes(root.resolve(file))));
+            }
+        }
+        // Stylesheets change when their references are rewritten, so they are hashed
+        // after that; documents are never targets but are listed for completeness.
+        for (String stylesheet : stylesheets) {
+            if (rewrite) {
+                rewriteCss(stylesheet);
+            }
+            hashes.put(stylesheet, AssetFingerprints.fingerprint(Files.readAllBytes(root.resolve(stylesheet))));
+        }
+        Map<String, String> map = new TreeMap<>(hashes);
+        for (String document : documents) {
+            if (rewrite) {
+                rewriteHtml(document);
+            }
+            map.put(document, AssetFingerprints.fingerprint(Files.readAllBytes(root.resolve(document))));
+        }
+
+        StringBuilder out = new StringBuilder(AssetFingerprints.HEADER).append('\n');
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            out.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        Files.write(root.resolve(AssetFingerprints.MAP_NAME), out.toString().getBytes(StandardCharsets.UTF_8));
+        System.err.printf(Locale.US, "Fingerprinted %d files into %s%n", map.size(), AssetFingerprints.MAP_NAME);
+        if (rewrite) {
+            System.err.printf(Locale.US, "Rewrote %d references in %d files%n", rewrittenReferences, rewrittenFiles);
+        }
+    }
+
+    private void rewriteHtml(String document) throws IOException {
+        String text = read(document);
+        // An HTML document is served from its own path.
+        String toRoot = repeat("../", depth(document));
+        StringBuffer rewritten = new StringBuffer(text.length());
+        Matcher tags = HTML_TAG.matcher(text);
+        int changed = 0;
+        while (tags.find()) {
+            String tag = tags.group();
+            if (MODULE.matcher(tag).find()) {
+                continue;
+            }
+            StringBuffer newTag = new StringBuffer(tag.length());
+            Matcher attributes = HTML_URL_ATTRIBUTE.matcher(tag);
+            while (attributes.find()) {
+                int group = attributes.group(2) != null ? 2 : attributes.group(3) != null ? 3 : 4;
+                String url = fingerprintedUrl(document, attributes.group(group), toRoot);
+                if (url == null) {
+                    continue;
+                }
+                changed++;
+                String quote = group == 2 ? "\"" : group == 3 ? "'" : "";
+                attributes.appendReplacement(newTag, Matcher.quoteReplacement(attributes.group(1) + quote + url + quote));
+            }
+            attributes.appendTail(newTag);
+            tags.appendReplacement(rewritten, Matcher.quoteReplacement(newTag.toString()));
+        }
+        tags.appendTail(rewritten);
+        write(document, rewritten.toString(), changed);
+    }
+
+    private void rewriteCss(String stylesheet) throws IOException {
+        String text = read(stylesheet);
+        // Served as /_h/<hash>/<path>: two more levels than the file itself.
+        String toRoot = repeat("../", depth(stylesheet) + 2);
+        StringBuffer rewritten = new StringBuffer(text.length());
+        Matcher urls = CSS_URL.matcher(text);
+        int changed = 0;
+        while (urls.find()) {
+            int group = urls.group(1) != null ? 1 : urls.group(2) != null ? 2 : 3;
+            String url = fingerprintedUrl(stylesheet, urls.group(group), toRoot);
+            if (url == null) {
+                continue;
+            }
+            changed++;
+            String quote = group == 1 ? "\"" : group == 2 ? "'" : "";
+            urls.appendReplacement(rewritten, Matcher.quoteReplacement("url(" + quote + url + quote + ")"));
+        }
+        urls.appendTail(rewritten);
+        write(stylesheet, rewritten.toString(), changed);
+    }
+
+    /**
+     * Returns the fingerprinted form of {@code reference} in {@code from}, or {@code null}
+     * to leave it alone.
+     */
+    private String fingerprintedUrl(String from, String reference, String toRoot) {
+        String value = reference.trim();
+        int suffixStart = indexOfAny(value, "?#");
+        String suffix = suffixStart >= 0 ? value.substring(suffixStart) : "";
+        String path = suffixStart >= 0 ? value.substring(0, suffixStart) : value;
+        if (path.isEmpty() || path.startsWith("//") || path.contains(":")) {
+            return null;
+        }
+        String resolved = resolve(from, UriCodec.decode(path));
+        if (resolved == null) {
+            return null;
+        }
+        resolved = AssetFingerprints.stripPrefix(resolved);
+        String hash = hashes.get(resolved);
+        if (hash == null || (isCss(from) && isCss(resolved))) {
+            return null;
+        }
+        String url = toRoot + "_h/" + hash + "/" + encodePath(resolved) + suffix;
+        return url.equals(value) ? null : url;
+    }
+
+    /**
+     * Resolves {@code reference} against the directory of {@code from}; '..' above the
+     * root stops at the root, as browsers do.
+     */
+    private static String resolve(String from, String reference) {
+        List<String> segments = new ArrayList<>();
+        if (!reference.startsWith("/")) {
+            String[] base = from.split("/");
+            for (int i = 0; i < base.length - 1; i++) {
+                segments.add(base[i]);
+            }
+        }
+        for (String segment : reference.split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else {
+                segments.add(segment);
+            }
+        }
+        return segments.isEmpty() ? null : String.join("/", segments);
+    }
+
+    private static String encodePath(String path) {
+        StringBuilder encoded = new StringBuilder(path.length());
+        for (String segment : path.split("/")) {
+            if (encoded.length() > 0) {
+                encoded.append('/');
+            }
+            encoded.append(UriCodec.encode(segment));
+        }
+        return encoded.toString();
+    }
+
+    private String read(String file) throws IOException {
+        // Latin-1 keeps every byte as is; references themselves are ASCII.
+        return new String(Files.readAllBytes(root.resolve(file)), StandardCharsets.ISO_8859_1);
+    }
+
+    private void write(String file, String text, int changed) throws IOException {
+        if (changed == 0) {
+            return;
+        }
+        Files.write(root.resolve(file), text.getBytes(StandardCharsets.ISO_8859_1));
+        rewrittenReferences += changed;
+        rewrittenFiles++;
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private static String repeat(String value, int count) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            repeated.append(value);
+        }
+        return repeated.toString();
+    }
+
+    private static int indexOfAny(String value, String chars) {
+        for (int i = 0; i < value.length(); i++) {
+            if (chars.indexOf(value.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isHtml(String path) {
+        String lower = path.toLowerCase(Locale.US);
+        return lower.endsWith(".html") || lower.endsWith(".htm");
+    }
+
+    private static boolean isCss(String path) {
+        return path.toLowerCase(Locale.US).endsWith(".css");
+    }
+}
@@ -0,0 +1,196 @@
+package com.cordova.geckoview;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The ordered asset requests of one app boot, with their start offsets.
+ *
+ * Profiles are recorded from one of:
+ * - a logcat capture of the server's access lines ({@code Request line: GET ... HTTP/1.1});
+ *   with {@code -v threadtime} timestamps the offsets are kept, otherwise only the order,
+ * - a {@code /__gecko__/metrics} dump (the requests of one navigation),
+ * - a HAR file exported from remote debugging (GET requests to the loopback host).
+ *
+ * The saved form is plain text, one {@code <offsetMs> <path>} pair per line.
+ */
+final class BootProfile {
+
+    private static final String HEADER = "# geckoview boot profile v1: <offsetMs> <path>";
+    private static final Pattern ACCESS_LINE = Pattern.compile("Request line: GET (\\S+) HTTP/1\\.[01]");
+    private static final Pattern LOGCAT_TIME =
+            Pattern.compile("^\\d\\d-\\d\\d\\s+(\\d\\d:\\d\\d:\\d\\d\\.\\d{3})");
+
+    static final class Request {
+        final double offsetMs;
+        final String path;
+
+        Request(double offsetMs, String path) {
+            this.offsetMs = offsetMs;
+            this.path = path;
+        }
+    }
+
+    final List<Request> requests;
+
+    private BootProfile(List<Request> requests) {
+        this.requests = Collections.unmodifiableList(requests);
+    }
+
+    /**
+     * Reads a saved profile or records one from a logcat capture, metrics dump or HAR.
+     *
+     * @param navigation index of the navigation to take from a metrics dump, negative
+     *                   counting from the end
+     * @param host       loopback host whose requests a HAR contributes
+     */
+    static BootProfile load(Path file, int navigation, String host) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        String trimmed = text.trim();
+        BootProfile profile;
+        if (trimmed.startsWith(HEADER)) {
+            profile = parseSaved(trimmed);
+        } else if (trimmed.startsWith("{")) {
+            profile = fromHar(MiniJson.parse(trimmed), host);
+        } else if (trimmed.startsWith("[")) {
+            profile = fromMetrics(MiniJson.parse(trimmed), navigation);
+        } else {
+            profile = fromLogcat(text);
+        }
+        if (profile.requests.isEmpty()) {
+            throw new IOException("No requests found in " + file);
+        }
+        return profile;
+    }
+
+    void save(Writer out) throws IOException {
+        out.write(HEADER + "\n");
+        for (Request request : requests) {
+            out.write(String.format(Locale.US, "%.1f %s%n", request.offsetMs, request.path));
+        }
+        out.flush();
+    }
+
+    double durationMs() {
+        return requests.isEmpty() ? 0 : requests.get(requests.size() - 1).offsetMs;
+    }
+
+    private static BootProfile parseSaved(String text) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space <= 0) {
+                throw new IOException("Malformed profile line: " + line);
+            }
+            requests.add(new Request(Double.parseDouble(line.substring(0, space)), line.substring(space + 1).trim()));
+        }
+        return new BootProfile(requests);
+    }
+
+    static BootProfile fromLogcat(String text) {
+        List<Request> requests = new ArrayList<>();
+        long firstMillis = -1;
+        for (String line : text.split("\n")) {
+            Matcher access = ACCESS_LINE.matcher(line);
+            if (!access.find()) {
+                continue;
+            }
+            double offset = 0;
+            Matcher time = LOGCAT_TIME.matcher(line);
+            if (time.find()) {
+                long millis = LocalTime.parse(time.group(1)).toNanoOfDay() / 1000000L;
+                if (firstMillis < 0) {
+                    firstMillis = millis;
+                }
+                offset = millis - firstMillis;
+            }
+            requests.add(new Request(offset, access.group(1)));
+        }
+        return new BootProfile(requests);
+    }
+
+    static BootProfile fromMetrics(Object json, int navigation) throws IOException {
+        if (!(json instanceof List) || ((List<?>) json).isEmpty()) {
+            throw new IOException("Metrics dump holds no navigations");
+        }
+        List<?> records = (List<?>) json;
+        int index = navigation < 0 ? records.size() + navigation : navigation;
+        if (index < 0 || index >= records.size()) {
+            throw new IOException("No navigation " + navigation + " in metrics dump of " + records.size());
+        }
+        Object record = records.get(index);
+        List<Object> entries = MiniJson.array(record, "requests");
+        List<Request> requests = new ArrayList<>();
+        if (entries != null) {
+            for (Object entry : entries) {
+                String path = MiniJson.string(entry, "path");
+                if (path != null) {
+                    requests.add(new Request(MiniJson.number(entry, "startMs", 0), path));
+                }
+            }
+        }
+        return new BootProfile(sortedFromZero(requests));
+    }
+
+    static BootProfile fromHar(Object json, String host) throws IOException {
+        List<Object> entries = MiniJson.array(MiniJson.object(json, "log"), "entries");
+        if (entries == null) {
+            throw new IOException("Not a HAR file: missing log.entries");
+        }
+        List<Request> requests = new ArrayList<>();
+        for (Object entry : entries) {
+            Map<String, Object> request = MiniJson.object(entry, "request");
+            String url = MiniJson.string(request, "url");
+            if (url == null || !"GET".equalsIgnoreCase(MiniJson.string(request, "method"))) {
+                continue;
+            }
+            URI uri;
+            try {
+                uri = URI.create(url);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (!"http".equalsIgnoreCase(uri.getScheme()) || !host.equalsIgnoreCase(uri.getHost())) {
+                continue;
+            }
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                path += "?" + uri.getRawQuery();
+            }
+            String started = MiniJson.string(entry, "startedDateTime");
+            double millis = started != null ? OffsetDateTime.parse(started).toInstant().toEpochMilli() : 0;
+            requests.add(new Request(millis, path));
+        }
+        return new BootProfile(sortedFromZero(requests));
+    }
+
+    private static List<Request> sortedFromZero(List<Request> requests) {
+        requests.sort((a, b) -> Double.compare(a.offsetMs, b.offsetMs));
+        if (requests.isEmpty()) {
+            return requests;
+        }
+        double first = requests.get(0).offsetMs;
+        List<Request> shifted = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            shifted.add(new Request(request.offsetMs - first, request.path));
+        }
+        return shifted;
+    }
+}
@@ -0,0 +1,478 @@
+package com.cordova.geckoview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records asset-boot profiles and replays them against the local server over loopback.
+ *
+ *   record <source> [--navigation N] [--host localhost] [--out boot.profile]
+ *   replay <profile|source> (--assets DIR | --url http://127.0.0.1:PORT)
+ *          [--connections 6] [--no-reuse] [--pace asap|recorded] [--iterations 5]
+ *          [--warmup 1] [--cold] [--disk-cache DIR] [--shaping SPEC] [--json FILE] [--verbose]
+ *   compare <before-metrics.json> <after-metrics.json>
+ *
+ * With {@code --assets} the server core runs in this JVM on a directory-backed provider,
+ * so no device or network is involved. Requests are issued in profile order over at
+ * most {@code --connections} connections, like Gecko's per-host connection limit; with
+ * reuse on (the default) a connection is kept whenever the server allows it.
+ * {@code --pace recorded} holds each request until its recorded offset, {@code asap}
+ * issues them back to back. {@code --shaping} applies a {@link TrafficShaper} spec to
+ * the in-process server.
+ *
+ * Reported: latency percentiles, throughput, bytes, connections opened, peak JVM
+ * threads and the allocation rate of the threads still alive at the end (the server's,
+ * when in-process) next to that of the replay clients.
+ *
+ * {@code compare} takes two {@code /__gecko__/metrics} dumps, e.g. captured with asset
+ * inlining off and on, and prints the median requests per navigation and the median
+ * time to deviceready and to the load event for each.
+ */
+public final class BootReplay {
+
+    // Header block of a typical GeckoView subresource request.
+    private static final String GECKO_HEADERS =
+            "User-Agent: Mozilla/5.0 (Android 14; Mobile; rv:146.0) Gecko/146.0 Firefox/146.0\r\n" +
+            "Accept: */*\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate, br, zstd\r\n" +
+            "Sec-Fetch-Mode: no-cors\r\n" +
+            "Sec-Fetch-Site: same-origin\r\n";
+
+    private static final class Options {
+        String source;
+        int navigation = -1;
+        String host = "localhost";
+        String out;
+        File assets;
+        String url;
+        int connections = 6;
+        boolean reuse = true;
+        boolean paced;
+        int iterations = 5;
+        int warmup = 1;
+        boolean cold;
+        File diskCache;
+        String shaping;
+        String json;
+        boolean verbose;
+    }
+
+    /**
+     * Outcome of the measured iterations.
+     */
+    private static final class Totals {
+        final List<Long> latencies = new ArrayList<>();
+        final Map<Integer, Integer> statuses = new TreeMap<>();
+        long bytes;
+        long wallNanos;
+        int errors;
+        int connections;
+        long clientAllocated;
+        long otherAllocated;
+    }
+
+    private BootReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            usage();
+        }
+        if ("compare".equals(args[0])) {
+            if (args.length != 3) {
+                usage();
+            }
+            compare(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+        Options options = parse(args);
+        BootProfile profile = BootProfile.load(Paths.get(options.source), options.navigation, options.host);
+        if ("record".equals(args[0])) {
+            try (Writer out = options.out != null
+                    ? Files.newBufferedWriter(Paths.get(options.out), StandardCharsets.UTF_8)
+                    : new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+                profile.save(out);
+            }
+            System.err.printf(Locale.US, "Recorded %d requests over %.0f ms%n",
+                    profile.requests.size(), profile.durationMs());
+            return;
+        }
+        if (!"replay".equals(args[0]) || (options.assets == null) == (options.url == null)) {
+            usage();
+        }
+        replay(profile, options);
+    }
+
+    private static void replay(BootProfile profile, Options options) throws Exception {
+        ServerCore server = null;
+        InetSocketAddress address;
+        if (options.assets != null) {
+            ServerLogger log = new StreamLogger(System.err, options.verbose);
+            DiskAssetCache diskCache = options.diskCache != null
+                    ? new DiskAssetCache(new File(options.diskCache, "geckoview-assets"), "replay",
+                            DiskAssetCache.DEFAULT_MAX_BYTES, log)
+                    : null;
+            // Serve the directory as if it were the APK's asset folder, so bundled-asset
+            // handling and the disk cache behave as they do on a device.
+            File dir = options.assets.getAbsoluteFile();
+            server = new ServerCore(new DirectoryResourceProvider(dir.getParentFile()), new MemoryPreferenceStore(),
+                    log, "file:///android_asset/" + UriCodec.encode(dir.getName()) + "/",
+                    new UrlRouter.Builder(), diskCache);
+            server.setShaping(TrafficShaper.parse(options.shaping));
+            server.start();
+            server.registerMount();
+            URI base = URI.create(server.getBaseUrl());
+            address = new InetSocketAddress("127.0.0.1", base.getPort());
+        } else {
+            URI base = URI.create(options.url);
+            address = new InetSocketAddress(base.getHost(), base.getPort() > 0 ? base.getPort() : 80);
+        }
+        System.err.printf(Locale.US, "Replaying %d requests against %s:%d, %d connection(s), reuse %s, %s%n",
+                profile.requests.size(), address.getHostString(), address.getPort(), options.connections,
+                options.reuse ? "on" : "off", options.paced ? "recorded pacing" : "as fast as possible");
+        try {
+            for (int i = 0; i < options.warmup; i++) {
+                runOnce(profile, address, options, server, new Totals());
+            }
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            Totals totals = new Totals();
+            for (int i = 0; i < options.iterations; i++) {
+                runOnce(profile, address, options, server, totals);
+            }
+            report(totals, options, threads.getPeakThreadCount());
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static void runOnce(BootProfile profile, InetSocketAddress address, Options options,
+                                ServerCore server, Totals totals) throws InterruptedException {
+        if (options.cold && server != null) {
+            server.invalidateCaches();
+        }
+        List<BootProfile.Request> requests = profile.requests;
+        long[] latencies = new long[requests.size()];
+        int[] statuses = new int[requests.size()];
+        long[] bytes = new long[requests.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger connections = new AtomicInteger();
+        long[] clientAllocated = new long[options.connections];
+        Map<Long, Long> before = allocatedByThread();
+
+        long started = System.nanoTime();
+        Thread[] workers = new Thread[options.connections];
+        for (int w = 0; w < workers.length; w++) {
+            int worker = w;
+            workers[w] = new Thread(() -> {
+                long allocatedAtStart = currentThreadAllocated();
+                try (ReplayConnection connection = new ReplayConnection(address, options.reuse)) {
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests.size()) {
+                        BootProfile.Request request = requests.get(i);
+                        if (options.paced) {
+                            sleepUntil(started + (long) (request.offsetMs * 1e6));
+                        }
+                        long sent = System.nanoTime();
+                        try {
+                            ReplayConnection.Response response = connection.get(request.path, GECKO_HEADERS);
+                            statuses[i] = response.status;
+                            bytes[i] = response.bytes;
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                            statuses[i] = -1;
+                            if (options.verbose) {
+                                System.err.println(request.path + ": " + e);
+                            }
+                        }
+                        latencies[i] = System.nanoTime() - sent;
+                    }
+                    connections.addAndGet(connection.openedConnections());
+                }
+                clientAllocated[worker] = currentThreadAllocated() - allocatedAtStart;
+            }, "replay-" + w);
+            workers[w].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long wall = System.nanoTime() - started;
+        Map<Long, Long> after = allocatedByThread();
+
+        synchronized (totals) {
+            totals.wallNanos += wall;
+            totals.errors += errors.get();
+            totals.connections += connections.get();
+            for (int i = 0; i < latencies.length; i++) {
+                totals.latencies.add(latencies[i]);
+                totals.bytes += bytes[i];
+                totals.statuses.merge(statuses[i], 1, Integer::sum);
+            }
+            for (long allocated : clientAllocated) {
+                totals.clientAllocated += Math.max(0, allocated);
+            }
+            for (Map.Entry<Long, Long> thread : after.entrySet()) {
+                Long previous = before.get(thread.getKey());
+                totals.otherAllocated += thread.getValue() - (previous != null ? previous : 0);
+            }
+        }
+    }
+
+    private static void report(Totals totals, Options options, int peakThreads) throws IOException {
+        long[] sorted = new long[totals.latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = totals.latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        double seconds = totals.wallNanos / 1e9;
+        int requests = sorted.length;
+        double p50 = percentile(sorted, 50) / 1e6;
+        double p90 = percentile(sorted, 90) / 1e6;
+        double p99 = percentile(sorted, 99) / 1e6;
+        double max = requests > 0 ? sorted[requests - 1] / 1e6 : 0;
+
+        System.out.printf(Locale.US, "requests     %d in %d iteration(s), %d error(s)%n", requests, options.iterations, totals.errors);
+        System.out.printf(Locale.US, "latency      p50 %.3f ms  p90 %.3f ms  p99 %.3f ms  max %.3f ms%n", p50, p90, p99, max);
+        System.out.printf(Locale.US, "throughput   %.0f req/s  %.1f MB/s  (%d bytes)%n",
+                requests / seconds, totals.bytes / seconds / (1 << 20), totals.bytes);
+        System.out.printf(Locale.US, "boot         %.2f ms per iteration%n", totals.wallNanos / 1e6 / options.iterations);
+        System.out.printf(Locale.US, "connections  %d opened (%.2f per request)%n",
+                totals.connections, requests > 0 ? (double) totals.connections / requests : 0);
+        System.out.printf(Locale.US, "statuses     %s%n", totals.statuses);
+        System.out.printf(Locale.US, "threads      %d peak%n", peakThreads);
+        System.out.printf(Locale.US, "allocation   server %.1f MB/s (%.1f KB/request), client %.1f MB/s%n",
+                totals.otherAllocated / seconds / (1 << 20),
+                requests > 0 ? totals.otherAllocated / 1024.0 / requests : 0,
+                totals.clientAllocated / seconds / (1 << 20));
+
+        if (options.json != null) {
+            StringBuilder statuses = new StringBuilder("{");
+            for (Map.Entry<Integer, Integer> status : totals.statuses.entrySet()) {
+                if (statuses.length() > 1) {
+                    statuses.append(',');
+                }
+                statuses.append('"').append(status.getKey()).append("\":").append(status.getValue());
+            }
+            String json = String.format(Locale.US,
+                    "{\"requests\":%d,\"iterations\":%d,\"connectionsPerHost\":%d,\"reuse\":%b,\"paced\":%b," +
+                    "\"errors\":%d,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f," +
+                    "\"requestsPerSecond\":%.1f,\"bytes\":%d,\"bytesPerSecond\":%.0f,\"connectionsOpened\":%d," +
+                    "\"peakThreads\":%d,\"serverAllocatedBytesPerSecond\":%.0f," +
+                    "\"clientAllocatedBytesPerSecond\":%.0f,\"statuses\":%s}}%n",
+                    requests, options.iterations, options.connections, options.reuse, options.paced,
+                    totals.errors, p50, p90, p99, max, requests / seconds, totals.bytes, totals.bytes / seconds,
+                    totals.connections, peakThreads, totals.otherAllocated / seconds,
+                    totals.clientAllocated / seconds, statuses);
+            Files.write(Paths.get(options.json), json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void compare(Path before, Path after) throws IOException {
+        double[][] a = navigationFigures(before);
+        double[][] b = navigationFigures(after);
+        System.out.printf(Locale.US, "%-16s %12s %12s %12s%n", "median", "before", "after", "change");
+        System.out.printf(Locale.US, "%-16s %12d %12d%n", "navigations", a[0].length, b[0].length);
+        String[] labels = {"requests", "deviceready ms", "load event ms"};
+        for (int i = 0; i < labels.length; i++) {
+            double from = median(a[i]);
+            double to = median(b[i]);
+            if (Double.isNaN(from) || Double.isNaN(to)) {
+                System.out.printf(Locale.US, "%-16s %12s %12s%n", labels[i], format(from), format(to));
+                continue;
+            }
+            System.out.printf(Locale.US, "%-16s %12.1f %12.1f %+12.1f (%+.1f%%)%n",
+                    labels[i], from, to, to - from, from != 0 ? (to - from) * 100 / from : 0);
+        }
+    }
+
+    /**
+     * Reads a metrics dump into request counts, deviceready and load event times, one
+     * value per navigation; times are absent from navigations that did not report them.
+     */
+    private static double[][] navigationFigures(Path file) throws IOException {
+        Object json = MiniJson.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        if (!(json instanceof List)) {
+            throw new IOException(file + " is not a metrics dump");
+        }
+        List<Double> requests = new ArrayList<>();
+        List<Double> deviceReady = new ArrayList<>();
+        List<Double> loadEvent = new ArrayList<>();
+        for (Object record : (List<?>) json) {
+            List<Object> served = MiniJson.array(record, "requests");
+            requests.add((served != null ? served.size() : 0) + MiniJson.number(record, "droppedRequests", 0));
+            Map<String, Object> timing = MiniJson.object(record, "navigationTiming");
+            double ready = MiniJson.number(timing, "deviceReadyMs", -1);
+            if (ready >= 0) {
+                deviceReady.add(ready);
+            }
+            double load = MiniJson.number(timing, "loadEventEnd", -1);
+            if (load > 0) {
+                loadEvent.add(load);
+            }
+        }
+        return new double[][]{toArray(requests), toArray(deviceReady), toArray(loadEvent)};
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private static double median(double[] values) {
+        if (values.length == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "-" : String.format(Locale.US, "%.1f", value);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static Map<Long, Long> allocatedByThread() {
+        Map<Long, Long> allocated = new HashMap<>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return allocated;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    private static long currentThreadAllocated() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads instanceof com.sun.management.ThreadMXBean
+                ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId())
+                : 0;
+    }
+
+    private static void sleepUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        options.source = args[1];
+        for (int i = 2; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--no-reuse":
+                    options.reuse = false;
+                    continue;
+                case "--cold":
+                    options.cold = true;
+                    continue;
+                case "--verbose":
+                    options.verbose = true;
+                    continue;
+                default:
+                    break;
+            }
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--navigation":
+                    options.navigation = Integer.parseInt(value);
+                    break;
+                case "--host":
+                    options.host = value;
+                    break;
+                case "--out":
+                    options.out = value;
+                    break;
+                case "--assets":
+                    options.assets = new File(value);
+                    break;
+                case "--url":
+                    options.url = value;
+                    break;
+                case "--connections":
+                    options.connections = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--pace":
+                    options.paced = "recorded".equals(value);
+                    break;
+                case "--iterations":
+                    options.iterations = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--warmup":
+                    options.warmup = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--disk-cache":
+                    options.diskCache = new File(value);
+                    break;
+                case "--shaping":
+                    options.shaping = value;
+                    break;
+                case "--json":
+                    options.json = value;
+                    break;
+                default:
+                    usage();
+            }
+        }
+        return options;
+    }
+
+    private static void usage() {
+        System.err.println("usage: record <logcat|metrics.json|file.har> [--navigation N] [--host H] [--out FILE]");
+        System.err.println("       replay <profile|source> (--assets DIR | --url http://127.0.0.1:PORT)");
+        System.err.println("              [--connections 6] [--no-reuse] [--pace asap|recorded] [--iterations 5]");
+        System.err.println("              [--warmup 1] [--cold] [--disk-cache DIR] [--shaping SPEC] [--json FILE]");
+        System.err.println("              [--verbose]");
+        System.err.println("       compare <before-metrics.json> <after-metrics.json>");
+        System.exit(2);
+    }
+}
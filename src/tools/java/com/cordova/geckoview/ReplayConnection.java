@@ -0,0 +1,165 @@
+package com.cordova.geckoview;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * One HTTP/1.1 client connection, kept open between requests when {@code reuse} is set
+ * and the server allows it (Content-Length framing, no {@code Connection: close}).
+ * Interim 1xx responses are read and skipped.
+ */
+final class ReplayConnection implements Closeable {
+
+    static final class Response {
+        final int status;
+        final long bytes;
+
+        Response(int status, long bytes) {
+            this.status = status;
+            this.bytes = bytes;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final String hostHeader;
+    private final boolean reuse;
+    private final byte[] buffer = new byte[16 * 1024];
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private int opened;
+
+    ReplayConnection(InetSocketAddress address, boolean reuse) {
+        this.address = address;
+        this.hostHeader = address.getHostString() + ":" + address.getPort();
+        this.reuse = reuse;
+    }
+
+    /**
+     * Sends one GET and reads the whole response.
+     *
+     * @param headers extra header lines, each terminated by CRLF
+     */
+    Response get(String path, String headers) throws IOException {
+        boolean fresh = socket == null;
+        try {
+            return exchange(path, headers);
+        } catch (IOException e) {
+            close();
+            if (fresh) {
+                throw e;
+            }
+            // The server dropped an idle connection; retry once on a new one.
+            return exchange(path, headers);
+        }
+    }
+
+    /**
+     * Number of TCP connections opened so far.
+     */
+    int openedConnections() {
+        return opened;
+    }
+
+    private Response exchange(String path, String headers) throws IOException {
+        if (socket == null) {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            in = new BufferedInputStream(socket.getInputStream(), buffer.length);
+            out = socket.getOutputStream();
+            opened++;
+        }
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: " + hostHeader + "\r\n" + headers +
+                "Connection: " + (reuse ? "keep-alive" : "close") + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        long bytes = 0;
+        int status;
+        long contentLength;
+        boolean keepAlive;
+        while (true) {
+            String statusLine = readLine();
+            if (statusLine == null) {
+                throw new IOException("Connection closed before response");
+            }
+            bytes += statusLine.length() + 2;
+            String[] parts = statusLine.split(" ", 3);
+            status = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+            contentLength = -1;
+            keepAlive = reuse;
+            String line;
+            while ((line = readLine()) != null && !line.isEmpty()) {
+                bytes += line.length() + 2;
+                String lower = line.toLowerCase(Locale.US);
+                if (lower.startsWith("content-length:")) {
+                    contentLength = Long.parseLong(line.substring(15).trim());
+                } else if (lower.startsWith("connection:") && lower.contains("close")) {
+                    keepAlive = false;
+                }
+            }
+            bytes += 2;
+            if (status < 100 || status >= 200) {
+                break;
+            }
+        }
+
+        if (contentLength >= 0) {
+            long remaining = contentLength;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new IOException("Truncated body for " + path);
+                }
+                remaining -= read;
+            }
+            bytes += contentLength;
+        } else {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes += read;
+            }
+            keepAlive = false;
+        }
+        if (!keepAlive) {
+            close();
+        }
+        return new Response(status, bytes);
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+}
@@ -0,0 +1,36 @@
+#!/bin/sh
+# Records asset-boot profiles and replays them against the server core on a desktop
+# JVM. No device, network or third-party jars are needed.
+#
+#   src/tools/replay.sh record logcat.txt --out boot.profile
+#   src/tools/replay.sh replay boot.profile --assets platforms/android/app/src/main/assets/www
+#   src/tools/replay.sh replay boot.profile --assets www --connections 6 --pace recorded --json out.json
+#
+# See BootReplay for all options.
+set -e
+
+ROOT=$(cd "$(dirname "$0")/../.." && pwd)
+CLASSES="$ROOT/build/tools/classes"
+
+rm -rf "$CLASSES"
+mkdir -p "$CLASSES"
+
+javac -d "$CLASSES" \
+    "$ROOT/src/android/ServerCore.java" \
+    "$ROOT/src/android/ResourceProvider.java" \
+    "$ROOT/src/android/PreferenceStore.java" \
+    "$ROOT/src/android/ServerLogger.java" \
+    "$ROOT/src/android/UriCodec.java" \
+    "$ROOT/src/android/TrafficShaper.java" \
+    "$ROOT/src/android/PreloadScanner.java" \
+    "$ROOT/src/android/HtmlInliner.java" \
+    "$ROOT/src/android/AssetFingerprints.java" \
+    "$ROOT/src/android/PrefetchQueue.java" \
+    "$ROOT/src/android/UrlRouter.java" \
+    "$ROOT/src/android/AssetIndex.java" \
+    "$ROOT/src/android/AssetCache.java" \
+    "$ROOT/src/android/DiskAssetCache.java" \
+    "$ROOT/src/android/SingleFlight.java" \
+    $(find "$ROOT/src/jvm" "$ROOT/src/tools/java" -name '*.java')
+
+exec java -cp "$CLASSES" com.cordova.geckoview.BootReplay "$@"
@@ -1,10 +1,33 @@
 var serverUrl = (function () {
   if (window.location && window.location.origin) {
-    return window.location.origin;
+    // Secondary engine instances are served behind a /_m<n> path prefix.
+    var mount = /^\/_m\d+(?=\/)/.exec(window.location.pathname || '');
+    return window.location.origin + (mount ? mount[0] : '');
   }
   return '';
 })();
 
+// Built-in serve routes; replaced by the table compiled on the native side
+// (including <gecko-route> entries from config.xml) once it has been fetched.
+var routes = [
+  { match: 'cdvfile://', path: '/_cdvfile_/', encode: true },
+  { match: 'file:///android_asset/www/', path: '/', encode: false }
+];
+
+function loadRoutes () {
+  if (!serverUrl || typeof fetch !== 'function') {
+    return;
+  }
+  fetch(serverUrl + '/__gecko__/routes')
+    .then(function (response) { return response.ok ? response.json() : null; })
+    .then(function (table) {
+      if (Array.isArray(table) && table.length) {
+        routes = table.sort(function (a, b) { return b.match.length - a.match.length; });
+      }
+    })
+    .catch(function () {});
+}
+
 function convertFileSrc (url) {
   if (!url) {
     return url;
@@ -12,16 +35,210 @@ function convertFileSrc (url) {
   if (!serverUrl) {
     return url;
   }
-  if (url.indexOf('cdvfile://') === 0) {
-    return serverUrl + '/_cdvfile_/' + encodeURIComponent(url);
-  }
-  var assetPrefix = 'file:///android_asset/www/';
-  if (url.indexOf(assetPrefix) === 0) {
-    return serverUrl + '/' + url.substring(assetPrefix.length);
+  for (var i = 0; i < routes.length; i++) {
+    var route = routes[i];
+    if (url.indexOf(route.match) !== 0) {
+      continue;
+    }
+    if (route.encode) {
+      return serverUrl + route.path + encodeURIComponent(url);
+    }
+    var rest = url.substring(route.match.length);
+    if (rest.charAt(0) === '/') {
+      rest = rest.substring(1);
+    }
+    return serverUrl + route.path + rest;
   }
   return url;
 }
 
+loadRoutes();
+
+// Batched loading: many small same-origin assets in one request. The response format
+// is described on the native side (ServerCore#serveBatch).
+var BATCH_MAX_PARTS = 64;
+
+// The mount-relative path (with query) of url, or null if the local server cannot batch it.
+function batchPath (url) {
+  var resolved;
+  var server;
+  try {
+    resolved = new URL(url, document.baseURI);
+    server = new URL(serverUrl);
+  } catch (e) {
+    return null;
+  }
+  if (resolved.origin !== server.origin) {
+    return null;
+  }
+  var path = resolved.pathname;
+  var prefix = server.pathname.replace(/\/$/, '');
+  if (prefix) {
+    if (path.indexOf(prefix + '/') !== 0) {
+      return null;
+    }
+    path = path.substring(prefix.length);
+  }
+  return path + resolved.search;
+}
+
+function parseBatch (buffer) {
+  var bytes = new Uint8Array(buffer);
+  var parts = [];
+  var offset = 0;
+  while (offset < bytes.length) {
+    var end = bytes.indexOf(10, offset);
+    if (end < 0) {
+      throw new Error('Truncated batch response');
+    }
+    var fields = String.fromCharCode.apply(null, bytes.subarray(offset, end)).split(' ');
+    var status = parseInt(fields[0], 10);
+    var length = parseInt(fields[1], 10);
+    var start = end + 1;
+    if (isNaN(status) || isNaN(length) || start + length > bytes.length) {
+      throw new Error('Truncated batch response');
+    }
+    var type = fields.slice(3).join(' ');
+    parts.push({
+      status: status,
+      type: status === 200 ? type : null,
+      blob: status === 200 ? new Blob([bytes.subarray(start, start + length)], { type: type }) : null
+    });
+    offset = start + length;
+  }
+  return parts;
+}
+
+function fetchSingle (url) {
+  return fetch(url).then(function (response) {
+    if (!response.ok) {
+      return { status: response.status, type: null, blob: null };
+    }
+    return response.blob().then(function (blob) {
+      return { status: response.status, type: blob.type, blob: blob };
+    });
+  }, function () {
+    return { status: 0, type: null, blob: null };
+  });
+}
+
+function fetchBatchGroup (urls, paths) {
+  var query = paths.map(function (path) { return 'p=' + encodeURIComponent(path); }).join('&');
+  return fetch(serverUrl + '/__gecko__/batch?' + query)
+    .then(function (response) {
+      if (!response.ok) {
+        throw new Error('Batch request failed: ' + response.status);
+      }
+      return response.arrayBuffer();
+    })
+    .then(function (buffer) {
+      var parts = parseBatch(buffer);
+      if (parts.length !== urls.length) {
+        throw new Error('Batch response has ' + parts.length + ' of ' + urls.length + ' parts');
+      }
+      // Parts too large to batch are fetched on their own.
+      return Promise.all(parts.map(function (part, i) {
+        return part.status === 413 ? fetchSingle(urls[i]) : part;
+      }));
+    })
+    .catch(function () {
+      return Promise.all(urls.map(fetchSingle));
+    });
+}
+
+// Resolves to one { url, status, type, blob } per url, in order; blob is null on failure.
+function fetchBatch (urls) {
+  urls = [].concat(urls || []);
+  var results = new Array(urls.length);
+  var pending = [];
+  var group = null;
+  urls.forEach(function (url, i) {
+    var path = serverUrl && typeof fetch === 'function' ? batchPath(url) : null;
+    if (path === null) {
+      pending.push(fetchSingle(url).then(function (part) { results[i] = part; }));
+      return;
+    }
+    if (!group || group.paths.length === BATCH_MAX_PARTS) {
+      group = { indexes: [], urls: [], paths: [] };
+      pending.push(group);
+    }
+    group.indexes.push(i);
+    group.urls.push(url);
+    group.paths.push(path);
+  });
+  return Promise.all(pending.map(function (entry) {
+    if (!entry.paths) {
+      return entry;
+    }
+    return fetchBatchGroup(entry.urls, entry.paths).then(function (parts) {
+      parts.forEach(function (part, j) { results[entry.indexes[j]] = part; });
+    });
+  })).then(function () {
+    return results.map(function (part, i) {
+      return { url: urls[i], status: part.status, type: part.type, blob: part.blob };
+    });
+  });
+}
+
+// Warming: the server loads assets into its caches ahead of navigation, on a background
+// queue that yields to page requests (see PrefetchQueue on the native side).
+function fetchJson (path) {
+  return fetch(serverUrl + path).then(function (response) {
+    if (!response.ok) {
+      return response.text().then(function (message) { throw new Error(message); });
+    }
+    return response.json();
+  });
+}
+
+function waitForPrefetch (id) {
+  return fetchJson('/__gecko__/prefetch/wait?id=' + id).then(function (job) {
+    return job.finished ? job : waitForPrefetch(id);
+  });
+}
+
+// Resolves to the job's final { id, priority, total, loaded, failed, cancelled } once it
+// finishes or is cancelled. The promise carries cancel().
+function startPrefetch (query, options) {
+  var priority = options && options.priority === 'high' ? 'high' : 'low';
+  var id = null;
+  var cancelled = false;
+  var promise;
+  if (!serverUrl || typeof fetch !== 'function') {
+    promise = Promise.reject(new Error('Local server unavailable'));
+  } else if (!query) {
+    promise = Promise.resolve({ id: null, priority: priority, total: 0, loaded: 0, failed: 0, cancelled: false, finished: true });
+  } else {
+    promise = fetchJson('/__gecko__/prefetch?' + query + '&priority=' + priority).then(function (job) {
+      id = job.id;
+      if (cancelled) {
+        return fetchJson('/__gecko__/prefetch/cancel?id=' + id);
+      }
+      return job.finished ? job : waitForPrefetch(id);
+    });
+  }
+  promise.cancel = function () {
+    cancelled = true;
+    return id === null ? Promise.resolve() : fetchJson('/__gecko__/prefetch/cancel?id=' + id);
+  };
+  return promise;
+}
+
+function pathQuery (urls) {
+  return [].concat(urls || [])
+    .map(function (url) { return serverUrl ? batchPath(url) : null; })
+    .filter(function (path) { return path !== null; })
+    .map(function (path) { return 'p=' + encodeURIComponent(path); })
+    .join('&');
+}
+
+// Marks when deviceready fired, for the navigation timing the native side collects.
+document.addEventListener('deviceready', function () {
+  if (window.performance && typeof performance.mark === 'function') {
+    performance.mark('gecko-deviceready');
+  }
+}, false);
+
 window.WEBVIEW_SERVER_URL = serverUrl;
 window.WEBVIEW_LOCALSERVER = true;
 window.GeckoViewEngine = window.GeckoViewEngine || {};
@@ -30,13 +247,146 @@ if (typeof window.convertFileSrc !== 'function') {
   window.convertFileSrc = convertFileSrc;
 }
 
+// Ids matching geckocachecleared events to the clearCache() call that caused them.
+var clearCacheRequests = 0;
+
 module.exports = {
   getInfo: function () {
-    return Promise.resolve({
+    var info = {
       engine: 'geckoview',
       provider: 'Mozilla Gecko',
       embedded: true,
-      server: serverUrl
+      server: serverUrl,
+      profile: null
+    };
+    if (!serverUrl || typeof fetch !== 'function') {
+      return Promise.resolve(info);
+    }
+    return fetch(serverUrl + '/__gecko__/info')
+      .then(function (response) { return response.ok ? response.json() : {}; })
+      .then(function (nativeInfo) {
+        info.profile = nativeInfo.profile || null;
+        return info;
+      })
+      .catch(function () { return info; });
+  },
+  // getInfo().profile and getPageLoadMetrics() need a debug build or the
+  // GeckoDiagnostics preference.
+  getPageLoadMetrics: function () {
+    if (!serverUrl) {
+      return Promise.resolve([]);
+    }
+    return fetchJson('/__gecko__/metrics');
+  },
+  // options.scopes: any of 'network', 'image', 'site-data', 'all' (defaults to network
+  // and image caches); 'site-data' also deletes localStorage, sessionStorage, IndexedDB
+  // and service workers. options.host limits clearing to one host.
+  clearCache: function (options) {
+    options = options || {};
+    var id = String(++clearCacheRequests);
+    var scopes = options.scopes || ['network', 'image'];
+    var request = 'id=' + id + '&scope=' + encodeURIComponent([].concat(scopes).join(','));
+    if (options.host) {
+      request += '&host=' + encodeURIComponent(options.host);
+    }
+    return new Promise(function (resolve, reject) {
+      document.addEventListener('geckocachecleared', function listener (event) {
+        var result = event.detail || {};
+        if (result.id !== id) {
+          return;
+        }
+        document.removeEventListener('geckocachecleared', listener, false);
+        if (result.error) {
+          reject(new Error(result.error));
+        } else {
+          resolve(result);
+        }
+      }, false);
+      // Handled by the engine, not shown: only pages in the app's session can clear.
+      window.prompt(request, 'gecko_clear_cache:');
+    });
+  },
+  // Fault injection for testing on fast devices, e.g.
+  // setNetworkShaping('latency=200&bandwidth=256k&errors=0.02'); null turns it off.
+  // Only available in debug builds or when the GeckoNetworkShaping preference is set.
+  setNetworkShaping: function (spec) {
+    if (!serverUrl) {
+      return Promise.reject(new Error('Local server unavailable'));
+    }
+    var path = spec ? '/__gecko__/shaping/set?' + spec : '/__gecko__/shaping/off';
+    return fetch(serverUrl + path).then(function (response) {
+      if (!response.ok) {
+        return response.text().then(function (message) { throw new Error(message); });
+      }
+      return response.json();
+    });
+  },
+  // Fetches many small assets (relative or same-origin URLs) with one request per 64;
+  // see fetchBatch above. Other URLs, and parts too large to batch, are fetched alone.
+  fetchBatch: fetchBatch,
+  // Like fetchBatch, but resolves to a blob: URL per asset (null on failure). The caller
+  // revokes them with URL.revokeObjectURL.
+  loadBatch: function (urls) {
+    return fetchBatch(urls).then(function (parts) {
+      return parts.map(function (part) { return part.blob ? URL.createObjectURL(part.blob) : null; });
+    });
+  },
+  // Imports each JavaScript module and resolves to their namespaces, in order. A module
+  // loaded from a blob: URL cannot use relative import specifiers and is a different
+  // instance from the same file imported by its own URL, so this suits self-contained
+  // chunks only.
+  importBatch: function (urls) {
+    return fetchBatch(urls).then(function (parts) {
+      return Promise.all(parts.map(function (part) {
+        if (!part.blob) {
+          return Promise.reject(new Error('Failed to load ' + part.url + ' (' + part.status + ')'));
+        }
+        var url = URL.createObjectURL(part.blob);
+        return import(url).then(function (namespace) {
+          URL.revokeObjectURL(url);
+          return namespace;
+        }, function (error) {
+          URL.revokeObjectURL(url);
+          throw error;
+        });
+      }));
+    });
+  },
+  // Warms the server caches with assets (relative or same-origin URLs) the app will need
+  // next. options.priority: 'low' (default; yields to page requests) or 'high'.
+  // Resolves when the job finishes; the returned promise has cancel().
+  prefetch: function (urls, options) {
+    return startPrefetch(pathQuery(urls), options);
+  },
+  // Like prefetch, for the assets the build lists for routeName in gecko-warm.txt
+  // ("<route> <path>" lines), or, for a route naming an HTML document, that document and
+  // its critical subresources. Rejects for an unknown route.
+  warm: function (routeName, options) {
+    return startPrefetch('route=' + encodeURIComponent(routeName), options);
+  },
+  // Cancels every queued prefetch and warm job; resolves to { cancelled: <count> }.
+  cancelPrefetch: function () {
+    if (!serverUrl) {
+      return Promise.reject(new Error('Local server unavailable'));
+    }
+    return fetchJson('/__gecko__/prefetch/cancel');
+  },
+  // Resolves to { <url>: 'memory' | 'disk' | 'none' } for the server-side caches.
+  cacheResidency: function (urls) {
+    urls = [].concat(urls || []);
+    var query = pathQuery(urls);
+    if (!serverUrl || !query) {
+      return Promise.resolve(urls.reduce(function (result, url) {
+        result[url] = 'none';
+        return result;
+      }, {}));
+    }
+    return fetchJson('/__gecko__/cache?' + query).then(function (residency) {
+      return urls.reduce(function (result, url) {
+        var path = batchPath(url);
+        result[url] = (path !== null && residency[path]) || 'none';
+        return result;
+      }, {});
     });
   },
   convertFileSrc: convertFileSrc